@@ -0,0 +1,150 @@
+/*
+ * aoserv-ipreputation - Daemon that feeds IP reputation into the AOServ Platform.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-ipreputation.
+ *
+ * aoserv-ipreputation is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-ipreputation is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-ipreputation.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoindustries.ipreputation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads lines like {@link java.io.BufferedReader#readLine()}, but skips lines longer than a maximum length while
+ * reading them.  The characters of an over-long line are discarded as they are read, so a line without any line
+ * terminator cannot exhaust memory.
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+final class BoundedLineReader implements Closeable {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader in;
+  private final int maxLineLength;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int pos;
+  private int limit;
+
+  /**
+   * Skip a line feed following a carriage return.
+   */
+  private boolean skipLf;
+
+  private final StringBuilder line = new StringBuilder();
+  private long skippedCount;
+
+  /**
+   * @param maxLineLength  the maximum length of a line, {@code 0} for unlimited
+   */
+  BoundedLineReader(Reader in, int maxLineLength) {
+    if (maxLineLength < 0) {
+      throw new IllegalArgumentException("maxLineLength may not be negative: " + maxLineLength);
+    }
+    this.in = in;
+    this.maxLineLength = maxLineLength == 0 ? Integer.MAX_VALUE : maxLineLength;
+  }
+
+  /**
+   * Gets the number of lines skipped for being longer than the maximum length.
+   */
+  long getSkippedCount() {
+    return skippedCount;
+  }
+
+  /**
+   * Reads the next line that is not longer than the maximum length.
+   *
+   * @return  the line, without any line terminator, or {@code null} at the end of the stream
+   *
+   * @see java.io.BufferedReader#readLine()
+   */
+  String readLine() throws IOException {
+    line.setLength(0);
+    boolean started = false;
+    boolean discarding = false;
+    while (true) {
+      if (pos == limit) {
+        int count = in.read(buffer, 0, buffer.length);
+        if (count == -1) {
+          if (discarding) {
+            skippedCount++;
+            return null;
+          }
+          return started ? line.toString() : null;
+        }
+        pos = 0;
+        limit = count;
+      }
+      if (skipLf) {
+        skipLf = false;
+        if (buffer[pos] == '\n') {
+          pos++;
+          continue;
+        }
+      }
+      int start = pos;
+      while (pos < limit) {
+        char ch = buffer[pos];
+        if (ch == '\n' || ch == '\r') {
+          break;
+        }
+        pos++;
+      }
+      int length = pos - start;
+      started = true;
+      if (!discarding) {
+        if (length > maxLineLength - line.length()) {
+          discarding = true;
+          line.setLength(0);
+        } else {
+          line.append(buffer, start, length);
+        }
+      }
+      if (pos < limit) {
+        // End of line
+        if (buffer[pos++] == '\r') {
+          skipLf = true;
+        }
+        if (!discarding) {
+          return line.toString();
+        }
+        skippedCount++;
+        discarding = false;
+        started = false;
+      }
+    }
+  }
+
+  /**
+   * Checks if a line may be read without blocking.
+   *
+   * @see java.io.BufferedReader#ready()
+   */
+  boolean ready() throws IOException {
+    return pos < limit || in.ready();
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * aoserv-ipreputation - Daemon that feeds IP reputation into the AOServ Platform.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-ipreputation.
+ *
+ * aoserv-ipreputation is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-ipreputation is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-ipreputation.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoindustries.ipreputation;
+
+/**
+ * Parses IPv4 and IPv6 addresses without allocation or exceptions.  The result of the last parse is held in this
+ * parser, so each thread should have its own instance.
+ *
+ * <p>IPv4 addresses are parsed into an {@code int}, in the same form as
+ * {@link com.aoindustries.aoserv.client.net.IpAddress#getIntForIpAddress(java.lang.String)}.  IPv6 addresses are
+ * parsed into a pair of {@code long}, with the high 64 bits in {@link #getHigh()}.  IPv4-mapped IPv6 addresses, as
+ * reported for IPv4 connections to dual-stack sockets, are parsed as IPv4.  Surrounding brackets and any zone index
+ * are ignored.</p>
+ */
+final class IpAddressParser {
+
+  /**
+   * The result of parsing an invalid address.
+   */
+  static final int INVALID = 0;
+
+  /**
+   * The result of parsing an IPv4 or IPv4-mapped IPv6 address.
+   */
+  static final int IPV4 = 4;
+
+  /**
+   * The result of parsing an IPv6 address.
+   */
+  static final int IPV6 = 6;
+
+  private final int[] groups = new int[8];
+  private int ipv4;
+  private long high;
+  private long low;
+
+  /**
+   * Gets the IPv4 address from the last parse that returned {@link #IPV4}.
+   */
+  int getIpv4() {
+    return ipv4;
+  }
+
+  /**
+   * Gets the high 64 bits of the IPv6 address from the last parse that returned {@link #IPV6}.
+   */
+  long getHigh() {
+    return high;
+  }
+
+  /**
+   * Gets the low 64 bits of the IPv6 address from the last parse that returned {@link #IPV6}.
+   */
+  long getLow() {
+    return low;
+  }
+
+  /**
+   * Parses an address.
+   *
+   * @return  {@link #IPV4}, {@link #IPV6}, or {@link #INVALID}
+   */
+  int parse(CharSequence s) {
+    return parse(s, 0, s.length());
+  }
+
+  /**
+   * Parses an address from a range of characters.
+   *
+   * @return  {@link #IPV4}, {@link #IPV6}, or {@link #INVALID}
+   */
+  int parse(CharSequence s, int start, int end) {
+    if (end - start >= 2 && s.charAt(start) == '[' && s.charAt(end - 1) == ']') {
+      start++;
+      end--;
+    }
+    for (int i = start; i < end; i++) {
+      char ch = s.charAt(i);
+      if (ch == ':') {
+        return parseIpv6(s, start, end);
+      }
+      if (ch == '.') {
+        break;
+      }
+    }
+    return parseIpv4(s, start, end) ? IPV4 : INVALID;
+  }
+
+  /**
+   * Gets the value of an ASCII hexadecimal digit.  Unlike {@link Character#digit(char, int)}, other Unicode digits,
+   * such as the Arabic-Indic digits, are not accepted.
+   *
+   * @return  the value or {@code -1} when not a hexadecimal digit
+   */
+  private static int hexDigit(char ch) {
+    if (ch >= '0' && ch <= '9') {
+      return ch - '0';
+    } else if (ch >= 'a' && ch <= 'f') {
+      return ch - ('a' - 10);
+    } else if (ch >= 'A' && ch <= 'F') {
+      return ch - ('A' - 10);
+    } else {
+      return -1;
+    }
+  }
+
+  /**
+   * Parses dotted-decimal IPv4 into {@link #ipv4}.
+   */
+  private boolean parseIpv4(CharSequence s, int start, int end) {
+    int result = 0;
+    int pos = start;
+    for (int part = 0; part < 4; part++) {
+      if (part > 0) {
+        if (pos == end || s.charAt(pos) != '.') {
+          return false;
+        }
+        pos++;
+      }
+      int value = 0;
+      int digits = 0;
+      while (pos < end && digits < 4) {
+        char ch = s.charAt(pos);
+        if (ch < '0' || ch > '9') {
+          break;
+        }
+        value = value * 10 + (ch - '0');
+        digits++;
+        pos++;
+      }
+      if (digits == 0 || digits > 3 || value > 255) {
+        return false;
+      }
+      result = (result << 8) | value;
+    }
+    if (pos != end) {
+      return false;
+    }
+    ipv4 = result;
+    return true;
+  }
+
+  /**
+   * Parses IPv6 into {@link #high} and {@link #low}, or IPv4-mapped into {@link #ipv4}.
+   */
+  private int parseIpv6(CharSequence s, int start, int end) {
+    // Ignore any zone index
+    for (int i = start; i < end; i++) {
+      if (s.charAt(i) == '%') {
+        end = i;
+        break;
+      }
+    }
+    int count = 0;
+    int compressed = -1;
+    int pos = start;
+    if (pos < end && s.charAt(pos) == ':') {
+      if (pos + 1 == end || s.charAt(pos + 1) != ':') {
+        return INVALID;
+      }
+      compressed = 0;
+      pos += 2;
+    }
+    while (pos < end) {
+      int groupStart = pos;
+      int value = 0;
+      int digits = 0;
+      while (pos < end && digits < 5) {
+        int digit = hexDigit(s.charAt(pos));
+        if (digit == -1) {
+          break;
+        }
+        value = (value << 4) | digit;
+        digits++;
+        pos++;
+      }
+      if (digits == 0) {
+        return INVALID;
+      }
+      if (pos < end && s.charAt(pos) == '.') {
+        // Embedded IPv4 in the last two groups
+        if (count > 6 || !parseIpv4(s, groupStart, end)) {
+          return INVALID;
+        }
+        groups[count++] = ipv4 >>> 16;
+        groups[count++] = ipv4 & 0xFFFF;
+        pos = end;
+        break;
+      }
+      if (digits > 4 || count == 8) {
+        return INVALID;
+      }
+      groups[count++] = value;
+      if (pos == end) {
+        break;
+      }
+      if (s.charAt(pos) != ':') {
+        return INVALID;
+      }
+      pos++;
+      if (pos < end && s.charAt(pos) == ':') {
+        if (compressed != -1) {
+          return INVALID;
+        }
+        compressed = count;
+        pos++;
+      } else if (pos == end) {
+        return INVALID;
+      }
+    }
+    if (compressed == -1) {
+      if (count != 8) {
+        return INVALID;
+      }
+    } else {
+      if (count > 7) {
+        return INVALID;
+      }
+      // Expand the compressed zeros
+      int shift = 8 - count;
+      for (int i = count - 1; i >= compressed; i--) {
+        groups[i + shift] = groups[i];
+      }
+      for (int i = compressed; i < compressed + shift; i++) {
+        groups[i] = 0;
+      }
+    }
+    long newHigh = ((long) groups[0] << 48) | ((long) groups[1] << 32) | ((long) groups[2] << 16) | groups[3];
+    long newLow = ((long) groups[4] << 48) | ((long) groups[5] << 32) | ((long) groups[6] << 16) | groups[7];
+    if (newHigh == 0 && (newLow >>> 32) == 0xFFFFL) {
+      ipv4 = (int) newLow;
+      return IPV4;
+    }
+    high = newHigh;
+    low = newLow;
+    return IPV6;
+  }
+}
@@ -26,6 +26,8 @@ package com.aoindustries.ipreputation;
 import com.aoapps.lang.util.PropertiesUtils;
 import com.aoindustries.aoserv.client.AoservConnector;
 import java.lang.reflect.Constructor;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -45,6 +47,30 @@ public final class IpReputationDaemon {
 
   private static final String CONF_RESOURCE = "/com/aoindustries/ipreputation/ipreputation.properties";
 
+  private static volatile LocalReputationTable localTable;
+
+  /**
+   * Gets the local reputation table.
+   *
+   * @return  the table or {@code null} when not enabled
+   */
+  static LocalReputationTable getLocalTable() {
+    return localTable;
+  }
+
+  private static volatile ReputationRelay relay;
+
+  /**
+   * Gets the relay that forwards reputation to an aggregator instead of the master.
+   *
+   * @return  the relay or {@code null} when not enabled
+   */
+  static ReputationRelay getRelay() {
+    return relay;
+  }
+
+  private static volatile ReputationAggregator aggregator;
+
   /**
    * Runs the IP reputation daemon.
    */
@@ -62,6 +88,65 @@ public final class IpReputationDaemon {
           // Parse the properties file and start the monitors
           Properties config = PropertiesUtils.loadFromResource(IpReputationDaemon.class, CONF_RESOURCE);
 
+          // The local reputation table will only be opened once, even during retry
+          if (localTable == null) {
+            String localTablePath = config.getProperty("ipreputation.localTable.path");
+            if (localTablePath != null && !localTablePath.isEmpty()) {
+              // Parse all settings before opening the table, so a bad setting does not map the table on every retry
+              int capacity = Integer.parseInt(config.getProperty("ipreputation.localTable.capacity", "1048576"));
+              int halfLife = Integer.parseInt(config.getProperty("ipreputation.localTable.halfLife", "3600"));
+              String localTablePortProperty = "ipreputation.localTable.port";
+              String localTablePort = config.getProperty(localTablePortProperty);
+              int port;
+              if (localTablePort != null && !localTablePort.isEmpty()) {
+                port = Integer.parseInt(localTablePort);
+                if (port < 1 || port > 65535) {
+                  throw new IllegalArgumentException(localTablePortProperty + " out of range: " + port);
+                }
+              } else {
+                port = -1;
+              }
+              LocalReputationTable newLocalTable = new LocalReputationTable(localTablePath, capacity, halfLife);
+              if (port != -1) {
+                new LocalReputationServer(newLocalTable, port, ERROR_SLEEP).start();
+              }
+              localTable = newLocalTable;
+            }
+          }
+
+          // The relay will only be created once, even during retry
+          if (relay == null) {
+            String relayHost = config.getProperty("ipreputation.relay.host");
+            if (relayHost != null && !relayHost.isEmpty()) {
+              String relayPortProperty = "ipreputation.relay.port";
+              String relayPort = config.getProperty(relayPortProperty);
+              if (relayPort == null || relayPort.isEmpty()) {
+                throw new IllegalArgumentException(relayPortProperty + " required");
+              }
+              relay = new ReputationRelay(relayHost, Integer.parseInt(relayPort));
+            }
+          }
+
+          // The aggregator will only be started once, even during retry
+          if (aggregator == null) {
+            String aggregatorPort = config.getProperty("ipreputation.aggregator.port");
+            if (aggregatorPort != null && !aggregatorPort.isEmpty()) {
+              String aggregatorAddress = config.getProperty("ipreputation.aggregator.address");
+              ReputationAggregator newAggregator = new ReputationAggregator(
+                  new InetSocketAddress(
+                      aggregatorAddress == null || aggregatorAddress.isEmpty()
+                          ? InetAddress.getLoopbackAddress()
+                          : InetAddress.getByName(aggregatorAddress),
+                      Integer.parseInt(aggregatorPort)
+                  ),
+                  Long.parseLong(config.getProperty("ipreputation.aggregator.commitInterval", "30000")),
+                  ERROR_SLEEP
+              );
+              newAggregator.start();
+              aggregator = newAggregator;
+            }
+          }
+
           boolean hasError = false;
           for (int num = 1; num < Integer.MAX_VALUE; num++) {
             String className = config.getProperty("ipreputation.monitor." + num + ".className");
@@ -108,7 +193,7 @@ public final class IpReputationDaemon {
           }
         }
       }
-      if (monitors.isEmpty()) {
+      if (monitors.isEmpty() && aggregator == null) {
         throw new IllegalStateException("No monitors defined");
       }
     } catch (Throwable t) {
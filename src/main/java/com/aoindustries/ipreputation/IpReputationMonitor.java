@@ -1,6 +1,6 @@
 /*
  * aoserv-ipreputation - Daemon that feeds IP reputation into the AOServ Platform.
- * Copyright (C) 2012, 2013, 2020, 2021, 2022  AO Industries, Inc.
+ * Copyright (C) 2012, 2013, 2020, 2021, 2022, 2026  AO Industries, Inc.
  *     support@aoindustries.com
  *     7262 Bull Pen Cir
  *     Mobile, AL 36695
@@ -24,6 +24,13 @@
 package com.aoindustries.ipreputation;
 
 import com.aoindustries.aoserv.client.AoservConnector;
+import com.aoindustries.aoserv.client.net.reputation.Set;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -33,13 +40,16 @@ public abstract class IpReputationMonitor {
 
   protected final AoservConnector conn;
   protected final int num;
+  private final PrefixAggregator prefixAggregator;
 
   /**
    * All implementations must have a public constructor with these same parameters.
    */
+  @SuppressFBWarnings("CT_CONSTRUCTOR_THROW")
   protected IpReputationMonitor(AoservConnector conn, Properties config, int num) {
     this.conn = conn;
     this.num = num;
+    this.prefixAggregator = PrefixAggregator.getInstance(config, num);
   }
 
   /**
@@ -50,4 +60,111 @@ public abstract class IpReputationMonitor {
   public void start() {
     // Do nothing
   }
+
+  /**
+   * Adds a batch of reputation directly to the master.
+   *
+   * @param ipScores  the score for each IPv4 address, as returned by {@link com.aoindustries.aoserv.client.net.IpAddress#getIntForIpAddress(java.lang.String)}
+   *
+   * @throws NullPointerException when the reputation set is not found
+   */
+  static void commitReputation(
+      AoservConnector conn,
+      String setName,
+      Set.ConfidenceType confidenceType,
+      Set.ReputationType reputationType,
+      Map<Integer, Short> ipScores
+  ) throws IOException, SQLException {
+    // Find the reputation set
+    Set reputationSet = conn.getNet().getReputation().getSet().get(setName);
+    if (reputationSet == null) {
+      throw new NullPointerException("IP Reputation Set not found: " + setName);
+    }
+    List<Set.AddReputation> newReputations = new ArrayList<>(ipScores.size());
+    for (Map.Entry<Integer, Short> entry : ipScores.entrySet()) {
+      newReputations.add(
+          new Set.AddReputation(
+              entry.getKey(),
+              confidenceType,
+              reputationType,
+              entry.getValue()
+          )
+      );
+    }
+    reputationSet.addReputation(newReputations);
+  }
+
+  /**
+   * Adds a batch of reputation to the {@linkplain LocalReputationTable local reputation table} when enabled, then to
+   * the master, or forwards it to the {@linkplain ReputationRelay aggregator} when relaying.  The local table is
+   * updated first, so it keeps current even while the master or aggregator is unavailable.  When
+   * {@linkplain PrefixAggregator prefix aggregation} is enabled, only the batch sent to the master or aggregator is
+   * aggregated.  The local table always receives the score of each address as given.
+   *
+   * @param ipScores  the score for each IPv4 address, as returned by {@link com.aoindustries.aoserv.client.net.IpAddress#getIntForIpAddress(java.lang.String)}
+   */
+  protected void addReputation(
+      String setName,
+      Set.ConfidenceType confidenceType,
+      Set.ReputationType reputationType,
+      Map<Integer, Short> ipScores
+  ) throws IOException, SQLException {
+    addReputation(setName, confidenceType, reputationType, ipScores, true);
+  }
+
+  /**
+   * Adds a batch of reputation, optionally without {@linkplain PrefixAggregator prefix aggregation}.
+   *
+   * @param ipScores  the score for each IPv4 address, as returned by {@link com.aoindustries.aoserv.client.net.IpAddress#getIntForIpAddress(java.lang.String)}
+   * @param aggregate  when {@code false}, the batch is sent as given even when prefix aggregation is enabled
+   *
+   * @see #addReputation(java.lang.String, com.aoindustries.aoserv.client.net.reputation.Set.ConfidenceType, com.aoindustries.aoserv.client.net.reputation.Set.ReputationType, java.util.Map)
+   */
+  @SuppressWarnings("UseOfSystemOutOrSystemErr")
+  protected void addReputation(
+      String setName,
+      Set.ConfidenceType confidenceType,
+      Set.ReputationType reputationType,
+      Map<Integer, Short> ipScores,
+      boolean aggregate
+  ) throws IOException, SQLException {
+    LocalReputationTable localTable = IpReputationDaemon.getLocalTable();
+    if (localTable != null) {
+      int skipped = localTable.addReputation(reputationType, ipScores);
+      if (skipped != 0) {
+        System.err.println(num + ": Warning, local reputation table full, skipped " + skipped + " of " + ipScores.size());
+      }
+    }
+    Map<Integer, Short> aggregated = (!aggregate || prefixAggregator == null) ? ipScores : prefixAggregator.aggregate(ipScores);
+    ReputationRelay relay = IpReputationDaemon.getRelay();
+    if (relay != null) {
+      relay.forward(setName, confidenceType, reputationType, aggregated);
+    } else {
+      // Get AoservConnector with settings in properties file
+      commitReputation(AoservConnector.getConnector(), setName, confidenceType, reputationType, aggregated);
+    }
+  }
+
+  /**
+   * Adds a batch of IPv6 reputation.  The master only tracks IPv4 reputation, so IPv6 reputation is only added to the
+   * {@linkplain LocalReputationTable local reputation table}, per /64 network, when enabled.
+   *
+   * @param counts  the number of occurrences of each IPv6 address
+   * @param score  the score per occurrence, or the score per address when {@code coalesce}
+   */
+  @SuppressWarnings("UseOfSystemOutOrSystemErr")
+  protected void addIpv6Reputation(
+      Set.ReputationType reputationType,
+      LongPairCounts counts,
+      short score,
+      boolean coalesce
+  ) {
+    LocalReputationTable localTable = IpReputationDaemon.getLocalTable();
+    if (localTable != null) {
+      int skipped = localTable.addIpv6Reputation(reputationType, counts, score, coalesce);
+      if (skipped != 0) {
+        System.err.println(num + ": Warning, local reputation table full, skipped " + skipped + " of " + counts.size() + " IPv6");
+      }
+    }
+  }
 }
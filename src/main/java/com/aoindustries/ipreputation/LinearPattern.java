@@ -0,0 +1,880 @@
+/*
+ * aoserv-ipreputation - Daemon that feeds IP reputation into the AOServ Platform.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-ipreputation.
+ *
+ * aoserv-ipreputation is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-ipreputation is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-ipreputation.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoindustries.ipreputation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A regular expression that matches in time linear to the length of the input.
+ * The pattern is compiled to a Thompson NFA and simulated one character at a time, tracking capturing groups as in a
+ * Pike VM, so there is no backtracking, regardless of the pattern or the input.
+ *
+ * <p>Supports the subset of {@link java.util.regex.Pattern} syntax that may be matched without backtracking:
+ * literals, {@code .}, character classes with ranges and negation, {@code \d \D \s \S \w \W}, the usual escapes,
+ * capturing and non-capturing groups, alternation, the greedy and reluctant forms of {@code * + ? {n} {n,} {n,m}},
+ * and {@code ^} or {@code $} at the beginning or end of the pattern.  When more than one way to match is possible,
+ * capturing groups are the same as would be selected by {@link java.util.regex.Pattern}, except within repetitions
+ * of groups that may match the empty string.</p>
+ *
+ * <p>Everything else, including back references, look-around, boundaries, possessive quantifiers, nested classes,
+ * and flags, is rejected by {@link #compile(java.lang.String)}.  Matching is by {@code char}, so supplementary
+ * characters are not supported within character classes or by {@code .}.</p>
+ */
+final class LinearPattern {
+
+  /**
+   * The maximum number of repetitions in a counted quantifier, such as {@code {n,m}}.
+   */
+  private static final int MAX_REPEAT = 1000;
+
+  /**
+   * The maximum number of instructions in a compiled pattern.
+   */
+  private static final int MAX_INSTRUCTIONS = 10000;
+
+  private static final int OP_CHAR = 0;
+  private static final int OP_CLASS = 1;
+  private static final int OP_SPLIT = 2;
+  private static final int OP_JMP = 3;
+  private static final int OP_SAVE = 4;
+  private static final int OP_MATCH = 5;
+
+  private static final char[] DIGIT = {'0', '9'};
+  private static final char[] SPACE = {'\t', '\r', ' ', ' '};
+  private static final char[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+  private static final char[] LINE_TERMINATORS = {'\n', '\n', '\r', '\r', '\u0085', '\u0085', '\u2028', '\u2029'};
+
+  /**
+   * Compiles the given regular expression.
+   *
+   * @throws IllegalArgumentException when the regular expression is invalid or not supported
+   */
+  static LinearPattern compile(String regex) throws IllegalArgumentException {
+    Parser parser = new Parser(regex);
+    Node root = parser.parse();
+    Builder builder = new Builder(regex);
+    builder.add(OP_SAVE, 0, 0);
+    root.emit(builder);
+    builder.add(OP_SAVE, 1, 0);
+    builder.add(OP_MATCH, 0, 0);
+    return new LinearPattern(regex, parser.groupCount, builder);
+  }
+
+  private final String regex;
+  private final int groupCount;
+  private final int[] ops;
+  private final int[] args1;
+  private final int[] args2;
+  private final char[][] classes;
+
+  private LinearPattern(String regex, int groupCount, Builder builder) {
+    this.regex = regex;
+    this.groupCount = groupCount;
+    this.ops = Arrays.copyOf(builder.ops, builder.size);
+    this.args1 = Arrays.copyOf(builder.args1, builder.size);
+    this.args2 = Arrays.copyOf(builder.args2, builder.size);
+    this.classes = builder.classes.toArray(new char[builder.classes.size()][]);
+  }
+
+  @Override
+  public String toString() {
+    return regex;
+  }
+
+  /**
+   * Gets the number of capturing groups in this pattern.
+   */
+  int groupCount() {
+    return groupCount;
+  }
+
+  /**
+   * Creates a new matcher.  The matcher is reused for each match and is not thread-safe.
+   */
+  Matcher matcher() {
+    return new Matcher();
+  }
+
+  /**
+   * Matches input against the pattern, reusing its state between matches.
+   */
+  final class Matcher {
+
+    private final int slots = (groupCount + 1) * 2;
+    private ThreadList clist = new ThreadList();
+    private ThreadList nlist = new ThreadList();
+    private final int[] caps = new int[slots];
+    private final int[] result = new int[slots];
+    private final int[] stack = new int[ops.length * 2 + 1];
+    private final int[] stackValues = new int[stack.length];
+    private boolean matched;
+
+    private Matcher() {
+      // Created by matcher() only
+    }
+
+    /**
+     * Matches the entire input against the pattern.
+     *
+     * @see java.util.regex.Matcher#matches()
+     */
+    boolean matches(CharSequence input) {
+      matched = false;
+      int length = input.length();
+      clist.clear();
+      Arrays.fill(caps, -1);
+      addThread(clist, 0, 0);
+      for (int pos = 0; clist.size > 0; pos++) {
+        if (pos == length) {
+          // Threads are in priority order, the first to reach the end of the pattern is the match
+          for (int i = 0; i < clist.size; i++) {
+            if (ops[clist.dense[i]] == OP_MATCH) {
+              System.arraycopy(clist.caps, i * slots, result, 0, slots);
+              matched = true;
+              return true;
+            }
+          }
+          return false;
+        }
+        char ch = input.charAt(pos);
+        nlist.clear();
+        for (int i = 0; i < clist.size; i++) {
+          int pc = clist.dense[i];
+          int op = ops[pc];
+          if (
+              (op == OP_CHAR && ch == args1[pc])
+                  || (op == OP_CLASS && contains(classes[args1[pc]], ch))
+          ) {
+            System.arraycopy(clist.caps, i * slots, caps, 0, slots);
+            addThread(nlist, pc + 1, pos + 1);
+          }
+        }
+        ThreadList temp = clist;
+        clist = nlist;
+        nlist = temp;
+      }
+      return false;
+    }
+
+    /**
+     * Gets the start index of the given group of the last successful match.
+     *
+     * @return  the index or {@code -1} when the group did not participate in the match
+     *
+     * @throws IllegalStateException when the last match was not successful
+     * @throws IndexOutOfBoundsException when there is no such group
+     *
+     * @see java.util.regex.Matcher#start(int)
+     */
+    int start(int group) throws IllegalStateException, IndexOutOfBoundsException {
+      checkGroup(group);
+      int start = result[group * 2];
+      return result[group * 2 + 1] == -1 ? -1 : start;
+    }
+
+    /**
+     * Gets the end index of the given group of the last successful match.
+     *
+     * @return  the index or {@code -1} when the group did not participate in the match
+     *
+     * @throws IllegalStateException when the last match was not successful
+     * @throws IndexOutOfBoundsException when there is no such group
+     *
+     * @see java.util.regex.Matcher#end(int)
+     */
+    int end(int group) throws IllegalStateException, IndexOutOfBoundsException {
+      checkGroup(group);
+      int end = result[group * 2 + 1];
+      return result[group * 2] == -1 ? -1 : end;
+    }
+
+    private void checkGroup(int group) throws IllegalStateException, IndexOutOfBoundsException {
+      if (!matched) {
+        throw new IllegalStateException("No match found");
+      }
+      if (group < 0 || group > groupCount) {
+        throw new IndexOutOfBoundsException("No group " + group);
+      }
+    }
+
+    /**
+     * Adds a thread, following all empty transitions, in priority order.  Uses an explicit stack so the depth of the
+     * pattern does not affect the depth of the call stack.  Each instruction is added at most once per list, which
+     * bounds both the stack and the work per character.
+     *
+     * @param pos  the position of the next character, recorded by {@link #OP_SAVE}
+     */
+    private void addThread(ThreadList list, int startPc, int pos) {
+      int sp = 0;
+      stack[sp++] = startPc;
+      while (sp > 0) {
+        int job = stack[--sp];
+        if (job < 0) {
+          // Restore a capture after all threads following the save have been added
+          caps[-job - 1] = stackValues[sp];
+        } else if (!list.contains(job)) {
+          int index = list.add(job);
+          switch (ops[job]) {
+            case OP_JMP:
+              stack[sp++] = args1[job];
+              break;
+            case OP_SPLIT:
+              // Pushed in reverse so the first branch has priority
+              stack[sp++] = args2[job];
+              stack[sp++] = args1[job];
+              break;
+            case OP_SAVE:
+              int slot = args1[job];
+              stackValues[sp] = caps[slot];
+              stack[sp++] = -slot - 1;
+              caps[slot] = pos;
+              stack[sp++] = job + 1;
+              break;
+            default:
+              System.arraycopy(caps, 0, list.caps, index * slots, slots);
+          }
+        }
+      }
+    }
+
+    /**
+     * A set of threads, in priority order, using a sparse set for constant-time clear and membership.
+     */
+    private final class ThreadList {
+
+      private final int[] sparse = new int[ops.length];
+      private final int[] dense = new int[ops.length];
+      private final int[] caps = new int[ops.length * slots];
+      private int size;
+
+      private boolean contains(int pc) {
+        int index = sparse[pc];
+        return index < size && dense[index] == pc;
+      }
+
+      private int add(int pc) {
+        int index = size++;
+        sparse[pc] = index;
+        dense[index] = pc;
+        return index;
+      }
+
+      private void clear() {
+        size = 0;
+      }
+    }
+  }
+
+  /**
+   * Checks if a character is in a class of sorted, non-overlapping, inclusive ranges.
+   */
+  private static boolean contains(char[] ranges, char ch) {
+    int low = 0;
+    int high = ranges.length / 2 - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (ch < ranges[mid * 2]) {
+        high = mid - 1;
+      } else if (ch > ranges[mid * 2 + 1]) {
+        low = mid + 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sorts and merges ranges.
+   */
+  private static char[] normalize(List<char[]> ranges) {
+    ranges.sort((r1, r2) -> Character.compare(r1[0], r2[0]));
+    char[] merged = new char[ranges.size() * 2];
+    int size = 0;
+    for (char[] range : ranges) {
+      if (size > 0 && range[0] <= merged[size - 1] + 1) {
+        if (range[1] > merged[size - 1]) {
+          merged[size - 1] = range[1];
+        }
+      } else {
+        merged[size++] = range[0];
+        merged[size++] = range[1];
+      }
+    }
+    return Arrays.copyOf(merged, size);
+  }
+
+  /**
+   * Gets the complement of normalized ranges.
+   */
+  private static char[] complement(char[] ranges) {
+    char[] result = new char[ranges.length + 2];
+    int size = 0;
+    int next = Character.MIN_VALUE;
+    for (int i = 0; i < ranges.length; i += 2) {
+      if (ranges[i] > next) {
+        result[size++] = (char) next;
+        result[size++] = (char) (ranges[i] - 1);
+      }
+      next = ranges[i + 1] + 1;
+    }
+    if (next <= Character.MAX_VALUE) {
+      result[size++] = (char) next;
+      result[size++] = Character.MAX_VALUE;
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  /**
+   * Adds each range to the list of ranges.
+   */
+  private static void addRanges(List<char[]> list, char[] ranges) {
+    for (int i = 0; i < ranges.length; i += 2) {
+      list.add(new char[]{ranges[i], ranges[i + 1]});
+    }
+  }
+
+  /**
+   * Accumulates the instructions of the compiled pattern.
+   */
+  private static class Builder {
+
+    private final String regex;
+    private int[] ops = new int[16];
+    private int[] args1 = new int[16];
+    private int[] args2 = new int[16];
+    private int size;
+    private final List<char[]> classes = new ArrayList<>();
+
+    private Builder(String regex) {
+      this.regex = regex;
+    }
+
+    /**
+     * Adds an instruction.
+     *
+     * @return  the index of the new instruction
+     */
+    private int add(int op, int arg1, int arg2) throws IllegalArgumentException {
+      if (size == MAX_INSTRUCTIONS) {
+        throw new IllegalArgumentException("Pattern too complex, more than " + MAX_INSTRUCTIONS + " instructions: " + regex);
+      }
+      if (size == ops.length) {
+        ops = Arrays.copyOf(ops, size * 2);
+        args1 = Arrays.copyOf(args1, size * 2);
+        args2 = Arrays.copyOf(args2, size * 2);
+      }
+      ops[size] = op;
+      args1[size] = arg1;
+      args2[size] = arg2;
+      return size++;
+    }
+
+    private int addClass(char[] ranges) {
+      int index = classes.size();
+      classes.add(ranges);
+      return index;
+    }
+  }
+
+  /**
+   * A node in the parsed regular expression.
+   */
+  private abstract static class Node {
+
+    /**
+     * Adds the instructions that match this node.
+     */
+    abstract void emit(Builder builder) throws IllegalArgumentException;
+  }
+
+  private static class EmptyNode extends Node {
+    @Override
+    void emit(Builder builder) {
+      // Matches without any instructions
+    }
+  }
+
+  private static class ClassNode extends Node {
+
+    private final char[] ranges;
+
+    private ClassNode(char[] ranges) {
+      this.ranges = ranges;
+    }
+
+    @Override
+    void emit(Builder builder) throws IllegalArgumentException {
+      if (ranges.length == 2 && ranges[0] == ranges[1]) {
+        builder.add(OP_CHAR, ranges[0], 0);
+      } else {
+        builder.add(OP_CLASS, builder.addClass(ranges), 0);
+      }
+    }
+  }
+
+  private static class ConcatNode extends Node {
+
+    private final List<Node> nodes;
+
+    private ConcatNode(List<Node> nodes) {
+      this.nodes = nodes;
+    }
+
+    @Override
+    void emit(Builder builder) throws IllegalArgumentException {
+      for (Node node : nodes) {
+        node.emit(builder);
+      }
+    }
+  }
+
+  private static class AlternationNode extends Node {
+
+    private final List<Node> alternatives;
+
+    private AlternationNode(List<Node> alternatives) {
+      this.alternatives = alternatives;
+    }
+
+    @Override
+    void emit(Builder builder) throws IllegalArgumentException {
+      int last = alternatives.size() - 1;
+      int[] jumps = new int[last];
+      for (int i = 0; i < last; i++) {
+        int split = builder.add(OP_SPLIT, 0, 0);
+        builder.args1[split] = builder.size;
+        alternatives.get(i).emit(builder);
+        jumps[i] = builder.add(OP_JMP, 0, 0);
+        builder.args2[split] = builder.size;
+      }
+      alternatives.get(last).emit(builder);
+      for (int jump : jumps) {
+        builder.args1[jump] = builder.size;
+      }
+    }
+  }
+
+  private static class RepeatNode extends Node {
+
+    private final Node node;
+    private final int min;
+    private final int max;
+    private final boolean greedy;
+
+    /**
+     * @param max  the maximum repetitions or {@code -1} for unbounded
+     */
+    private RepeatNode(Node node, int min, int max, boolean greedy) {
+      this.node = node;
+      this.min = min;
+      this.max = max;
+      this.greedy = greedy;
+    }
+
+    @Override
+    void emit(Builder builder) throws IllegalArgumentException {
+      for (int i = 0; i < min; i++) {
+        node.emit(builder);
+      }
+      if (max == -1) {
+        int split = builder.add(OP_SPLIT, 0, 0);
+        node.emit(builder);
+        builder.add(OP_JMP, split, 0);
+        patch(builder, split);
+      } else {
+        int optional = max - min;
+        int[] splits = new int[optional];
+        for (int i = 0; i < optional; i++) {
+          splits[i] = builder.add(OP_SPLIT, 0, 0);
+          node.emit(builder);
+        }
+        for (int split : splits) {
+          patch(builder, split);
+        }
+      }
+    }
+
+    /**
+     * Points a split to either one more repetition or the end of the repetition, in order of preference.
+     */
+    private void patch(Builder builder, int split) {
+      int repeat = split + 1;
+      int end = builder.size;
+      builder.args1[split] = greedy ? repeat : end;
+      builder.args2[split] = greedy ? end : repeat;
+    }
+  }
+
+  private static class GroupNode extends Node {
+
+    private final int group;
+    private final Node node;
+
+    private GroupNode(int group, Node node) {
+      this.group = group;
+      this.node = node;
+    }
+
+    @Override
+    void emit(Builder builder) throws IllegalArgumentException {
+      builder.add(OP_SAVE, group * 2, 0);
+      node.emit(builder);
+      builder.add(OP_SAVE, group * 2 + 1, 0);
+    }
+  }
+
+  /**
+   * Recursive descent parser of the supported regular expression syntax.
+   */
+  private static class Parser {
+
+    private final String regex;
+    private final int length;
+    private int pos;
+    private int groupCount;
+
+    private Parser(String regex) {
+      this.regex = regex;
+      this.length = regex.length();
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at index " + pos + " of pattern: " + regex);
+    }
+
+    private Node parse() throws IllegalArgumentException {
+      Node node = parseAlternation();
+      if (pos < length) {
+        throw error("Unmatched closing ')'");
+      }
+      return node;
+    }
+
+    private Node parseAlternation() throws IllegalArgumentException {
+      List<Node> alternatives = new ArrayList<>();
+      alternatives.add(parseConcat());
+      while (pos < length && regex.charAt(pos) == '|') {
+        pos++;
+        alternatives.add(parseConcat());
+      }
+      return alternatives.size() == 1 ? alternatives.get(0) : new AlternationNode(alternatives);
+    }
+
+    private Node parseConcat() throws IllegalArgumentException {
+      List<Node> nodes = new ArrayList<>();
+      while (pos < length) {
+        char ch = regex.charAt(pos);
+        if (ch == '|' || ch == ')') {
+          break;
+        }
+        nodes.add(parseRepeat());
+      }
+      return nodes.size() == 1 ? nodes.get(0) : new ConcatNode(nodes);
+    }
+
+    private Node parseRepeat() throws IllegalArgumentException {
+      Node atom = parseAtom();
+      if (pos == length) {
+        return atom;
+      }
+      final int min;
+      final int max;
+      switch (regex.charAt(pos)) {
+        case '*':
+          pos++;
+          min = 0;
+          max = -1;
+          break;
+        case '+':
+          pos++;
+          min = 1;
+          max = -1;
+          break;
+        case '?':
+          pos++;
+          min = 0;
+          max = 1;
+          break;
+        case '{':
+          pos++;
+          min = parseNumber();
+          if (pos < length && regex.charAt(pos) == ',') {
+            pos++;
+            max = (pos < length && regex.charAt(pos) == '}') ? -1 : parseNumber();
+          } else {
+            max = min;
+          }
+          if (pos == length || regex.charAt(pos) != '}') {
+            throw error("Unclosed counted closure");
+          }
+          pos++;
+          if (max != -1 && max < min) {
+            throw error("Illegal repetition range");
+          }
+          break;
+        default:
+          return atom;
+      }
+      boolean greedy = true;
+      if (pos < length) {
+        char ch = regex.charAt(pos);
+        if (ch == '?') {
+          pos++;
+          greedy = false;
+        } else if (ch == '+') {
+          throw error("Possessive quantifiers not supported");
+        }
+      }
+      if (pos < length && "*+?{".indexOf(regex.charAt(pos)) != -1) {
+        throw error("Dangling meta character '" + regex.charAt(pos) + "'");
+      }
+      return new RepeatNode(atom, min, max, greedy);
+    }
+
+    private int parseNumber() throws IllegalArgumentException {
+      int start = pos;
+      int value = 0;
+      while (pos < length && regex.charAt(pos) >= '0' && regex.charAt(pos) <= '9') {
+        value = value * 10 + (regex.charAt(pos++) - '0');
+        if (value > MAX_REPEAT) {
+          throw error("Repetition greater than " + MAX_REPEAT);
+        }
+      }
+      if (pos == start) {
+        throw error("Illegal repetition");
+      }
+      return value;
+    }
+
+    private Node parseAtom() throws IllegalArgumentException {
+      char ch = regex.charAt(pos++);
+      switch (ch) {
+        case '(':
+          final int group;
+          if (pos < length && regex.charAt(pos) == '?') {
+            if (pos + 1 < length && regex.charAt(pos + 1) == ':') {
+              pos += 2;
+              group = -1;
+            } else {
+              throw error("Only non-capturing groups \"(?:\" are supported");
+            }
+          } else {
+            group = ++groupCount;
+          }
+          Node node = parseAlternation();
+          if (pos == length) {
+            throw error("Unclosed group");
+          }
+          pos++;
+          return group == -1 ? node : new GroupNode(group, node);
+        case '[':
+          return new ClassNode(parseClass());
+        case '.':
+          return new ClassNode(complement(LINE_TERMINATORS));
+        case '^':
+          if (pos != 1) {
+            throw error("'^' only supported at the beginning of the pattern");
+          }
+          return new EmptyNode();
+        case '$':
+          if (pos != length) {
+            throw error("'$' only supported at the end of the pattern");
+          }
+          return new EmptyNode();
+        case '\\':
+          char[] predefined = parsePredefinedClass();
+          if (predefined != null) {
+            return new ClassNode(predefined);
+          }
+          char escaped = parseEscape();
+          return new ClassNode(new char[]{escaped, escaped});
+        case '*':
+        case '+':
+        case '?':
+          throw error("Dangling meta character '" + ch + "'");
+        case '{':
+          throw error("Illegal repetition");
+        default:
+          return new ClassNode(new char[]{ch, ch});
+      }
+    }
+
+    /**
+     * Parses a predefined character class after a backslash.
+     *
+     * @return  the class or {@code null} when not a predefined class, with the position unchanged
+     */
+    private char[] parsePredefinedClass() throws IllegalArgumentException {
+      if (pos == length) {
+        throw error("Unexpected end of pattern after '\\'");
+      }
+      final char[] ranges;
+      switch (regex.charAt(pos)) {
+        case 'd':
+          ranges = DIGIT;
+          break;
+        case 'D':
+          ranges = complement(DIGIT);
+          break;
+        case 's':
+          ranges = SPACE;
+          break;
+        case 'S':
+          ranges = complement(SPACE);
+          break;
+        case 'w':
+          ranges = WORD;
+          break;
+        case 'W':
+          ranges = complement(WORD);
+          break;
+        default:
+          return null;
+      }
+      pos++;
+      return ranges;
+    }
+
+    /**
+     * Parses an escaped character after a backslash.
+     */
+    private char parseEscape() throws IllegalArgumentException {
+      char ch = regex.charAt(pos++);
+      switch (ch) {
+        case 't':
+          return '\t';
+        case 'n':
+          return '\n';
+        case 'r':
+          return '\r';
+        case 'f':
+          return '\f';
+        case 'a':
+          return '\u0007';
+        case 'e':
+          return '\u001B';
+        case '0':
+          return (char) parseHex(8, 1, 3, 0377);
+        case 'x':
+          return (char) parseHex(16, 2, 2, 0xFF);
+        case 'u':
+          return (char) parseHex(16, 4, 4, 0xFFFF);
+        default:
+          if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')) {
+            pos--;
+            throw error("Unsupported escape sequence '\\" + ch + "'");
+          }
+          return ch;
+      }
+    }
+
+    /**
+     * Parses a fixed-length or octal escape value.
+     */
+    private int parseHex(int radix, int minDigits, int maxDigits, int maxValue) throws IllegalArgumentException {
+      int value = 0;
+      int digits = 0;
+      while (digits < maxDigits && pos < length) {
+        int digit = Character.digit(regex.charAt(pos), radix);
+        if (digit == -1 || value * radix + digit > maxValue) {
+          break;
+        }
+        value = value * radix + digit;
+        digits++;
+        pos++;
+      }
+      if (digits < minDigits) {
+        throw error("Illegal escape sequence");
+      }
+      return value;
+    }
+
+    /**
+     * Parses a character class after the opening '['.
+     */
+    private char[] parseClass() throws IllegalArgumentException {
+      boolean negated = false;
+      if (pos < length && regex.charAt(pos) == '^') {
+        pos++;
+        negated = true;
+      }
+      List<char[]> ranges = new ArrayList<>();
+      while (true) {
+        if (pos == length) {
+          throw error("Unclosed character class");
+        }
+        char ch = regex.charAt(pos++);
+        if (ch == ']') {
+          break;
+        }
+        if (ch == '[' || (ch == '&' && pos < length && regex.charAt(pos) == '&')) {
+          throw error("Nested classes and intersections not supported");
+        }
+        final char low;
+        if (ch == '\\') {
+          char[] predefined = parsePredefinedClass();
+          if (predefined != null) {
+            addRanges(ranges, predefined);
+            continue;
+          }
+          low = parseEscape();
+        } else {
+          low = ch;
+        }
+        char high = low;
+        if (
+            pos + 1 < length
+                && regex.charAt(pos) == '-'
+                && regex.charAt(pos + 1) != ']'
+        ) {
+          pos++;
+          ch = regex.charAt(pos++);
+          if (ch == '[') {
+            throw error("Nested classes not supported");
+          }
+          if (ch == '\\') {
+            if (parsePredefinedClass() != null) {
+              throw error("Illegal character range");
+            }
+            high = parseEscape();
+          } else {
+            high = ch;
+          }
+          if (high < low) {
+            throw error("Illegal character range");
+          }
+        }
+        ranges.add(new char[]{low, high});
+      }
+      if (ranges.isEmpty()) {
+        throw error("Empty character class");
+      }
+      char[] normalized = normalize(ranges);
+      return negated ? complement(normalized) : normalized;
+    }
+  }
+}
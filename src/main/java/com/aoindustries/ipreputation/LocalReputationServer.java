@@ -0,0 +1,119 @@
+/*
+ * aoserv-ipreputation - Daemon that feeds IP reputation into the AOServ Platform.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-ipreputation.
+ *
+ * aoserv-ipreputation is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-ipreputation is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-ipreputation.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoindustries.ipreputation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Answers queries of the {@link LocalReputationTable} from other processes on this host.  Listens on the loopback
+ * address only.
+ *
+ * <p>The protocol is binary, with any number of queries pipelined on each connection.  Each query is an IPv4 address
+ * as a 4-byte big-endian {@code int}.  Each response is the score, rounded, as a 4-byte big-endian {@code int}.
+ * Responses are flushed whenever no more queries are immediately available.</p>
+ */
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+class LocalReputationServer extends Thread {
+
+  private final LocalReputationTable table;
+  private final int port;
+  private final long errorSleep;
+
+  LocalReputationServer(LocalReputationTable table, int port, long errorSleep) {
+    super(LocalReputationServer.class.getName() + "(" + port + " → " + table + ")");
+    this.table = table;
+    this.port = port;
+    this.errorSleep = errorSleep;
+  }
+
+  @Override
+  @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch", "SleepWhileInLoop"})
+  public void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try (ServerSocket serverSocket = new ServerSocket()) {
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        while (!Thread.currentThread().isInterrupted()) {
+          new ConnectionThread(serverSocket.accept()).start();
+        }
+      } catch (Throwable t) {
+        t.printStackTrace(System.err);
+        try {
+          Thread.sleep(errorSleep);
+        } catch (InterruptedException e) {
+          e.printStackTrace(System.err);
+          // Restore the interrupted status
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Answers the queries of one connection.
+   */
+  private class ConnectionThread extends Thread {
+
+    private final Socket socket;
+
+    private ConnectionThread(Socket socket) {
+      super(LocalReputationServer.this.getName() + ".ConnectionThread(" + socket.getRemoteSocketAddress() + ")");
+      this.socket = socket;
+    }
+
+    @Override
+    @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
+    public void run() {
+      try (
+          Socket s = socket;
+          DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))
+          ) {
+        s.setTcpNoDelay(true);
+        while (!Thread.currentThread().isInterrupted()) {
+          int ip;
+          try {
+            ip = in.readInt();
+          } catch (EOFException e) {
+            // Client closed the connection
+            break;
+          }
+          out.writeInt(Math.round(table.getScore(ip)));
+          if (in.available() == 0) {
+            out.flush();
+          }
+        }
+      } catch (Throwable t) {
+        t.printStackTrace(System.err);
+      }
+    }
+  }
+}
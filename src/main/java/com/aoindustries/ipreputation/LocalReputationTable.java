@@ -0,0 +1,489 @@
+/*
+ * aoserv-ipreputation - Daemon that feeds IP reputation into the AOServ Platform.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-ipreputation.
+ *
+ * aoserv-ipreputation is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-ipreputation is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-ipreputation.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoindustries.ipreputation;
+
+import com.aoindustries.aoserv.client.net.reputation.Set;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+
+/**
+ * A table of IP reputation, local to this host, updated from the same batches the monitors commit to the master.
+ * The table is a memory-mapped file, so it survives restarts and may be read directly by other processes on the host.
+ * Scores decay exponentially, with a configurable half-life.
+ *
+ * <p>Reads never lock.  Updates are serialized and published with release semantics, so a reader always sees a
+ * consistent score for an address.</p>
+ *
+ * <p>The file is in native byte order.  It begins with a header of {@link #HEADER_SIZE} bytes:</p>
+ * <ol>
+ *   <li>{@code int} magic {@link #MAGIC}</li>
+ *   <li>{@code int} version {@link #VERSION}</li>
+ *   <li>{@code int} capacity, a power of two</li>
+ *   <li>{@code int} half-life in seconds, {@code 0} for no decay</li>
+ * </ol>
+ *
+ * <p>The header is followed by two regions of {@code capacity} slots, first for IPv4 addresses and then for IPv6
+ * networks.  Each region is an open-addressed hash table with linear probing from {@link #hash(int)} or
+ * {@link #hash(long)}, limited to {@link #MAX_PROBES} slots.  Each slot is two {@code long}:</p>
+ * <ol>
+ *   <li>key: {@code 0} when empty, {@link #KEY_BUSY} while being reassigned, otherwise either {@code 1L << 32}
+ *       combined with the unsigned IPv4 address or the high 64 bits of the IPv6 address.  IPv6 reputation is kept per
+ *       /64 network, since a single host commonly rotates through addresses within its /64.</li>
+ *   <li>value: the {@code float} bits of the score in the high 32 bits and the unsigned seconds since the epoch when
+ *       last updated in the low 32 bits.  Good reputation is positive and bad reputation is negative.</li>
+ * </ol>
+ *
+ * <p>To read, find the key and then read the value, both with acquire semantics.  If the key is no longer the same
+ * after reading the value, the slot was reassigned and the read should be retried.</p>
+ */
+public final class LocalReputationTable {
+
+  /**
+   * The magic number at the beginning of the file.
+   */
+  public static final int MAGIC = 0x414F4952;
+
+  /**
+   * The version of the file format.
+   */
+  public static final int VERSION = 2;
+
+  /**
+   * The size of the header, in bytes.
+   */
+  public static final int HEADER_SIZE = 64;
+
+  /**
+   * The size of each slot, in bytes.
+   */
+  public static final int SLOT_SIZE = 16;
+
+  /**
+   * The maximum number of slots probed for any address.
+   */
+  public static final int MAX_PROBES = 64;
+
+  /**
+   * The key of a slot while it is being reassigned to a different address.
+   */
+  public static final long KEY_BUSY = -1L;
+
+  private static final long KEY_PRESENT = 1L << 32;
+
+  /**
+   * Once the magnitude of a decayed score is below this threshold, its slot may be reassigned.
+   */
+  private static final float STALE_SCORE = 0.5f;
+
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  /**
+   * Hashes an address to its first slot, before masking to the capacity.
+   */
+  public static int hash(int ip) {
+    // Finalization mix from MurmurHash3
+    int h = ip;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  /**
+   * Hashes an IPv6 /64 network to its first slot, before masking to the capacity.
+   */
+  public static int hash(long network) {
+    // Finalization mix from MurmurHash3
+    long h = network;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  private final String path;
+  private final int capacity;
+  private final int ipv6Offset;
+  private final int mask;
+  private final int halfLife;
+  private final MappedByteBuffer buffer;
+
+  /**
+   * Opens the table, reusing any existing file of the same version and capacity.  When only the half-life differs,
+   * the header is updated in place and the scores are kept.  Otherwise, a new empty file is built beside the
+   * existing file and atomically renamed over it, so the existing file is never truncated under the mappings of
+   * other processes.  Those mappings remain valid, but no longer receive updates, so readers should re-open the file
+   * when it is replaced.
+   *
+   * @param capacity  the number of slots, rounded up to a power of two
+   * @param halfLife  the number of seconds for a score to decay by half, {@code 0} for no decay
+   */
+  public LocalReputationTable(String path, int capacity, int halfLife) throws IOException {
+    if (capacity < 1 || capacity > (1 << 25)) {
+      throw new IllegalArgumentException("capacity out of range: " + capacity);
+    }
+    if (halfLife < 0) {
+      throw new IllegalArgumentException("halfLife may not be negative: " + halfLife);
+    }
+    int rounded = Integer.highestOneBit(capacity);
+    if (rounded < capacity) {
+      rounded <<= 1;
+    }
+    this.path = path;
+    this.capacity = rounded;
+    this.mask = rounded - 1;
+    this.halfLife = halfLife;
+    this.ipv6Offset = HEADER_SIZE + rounded * SLOT_SIZE;
+    int size = HEADER_SIZE + 2 * rounded * SLOT_SIZE;
+    Path file = Paths.get(path);
+    if (!isReusable(file, size, rounded)) {
+      create(file, size, rounded, halfLife);
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      mapped.order(ByteOrder.nativeOrder());
+      if (mapped.getInt(12) != halfLife) {
+        // Scores are stored undecayed with their time of update, so they remain valid with the new half-life
+        mapped.putInt(12, halfLife);
+        mapped.force();
+      }
+      buffer = mapped;
+    }
+  }
+
+  /**
+   * Checks if an existing file has the expected size, magic, version, and capacity.  The header is read without
+   * mapping the file, so a file that is not reusable may still be replaced on platforms that do not allow replacing
+   * mapped files.
+   */
+  private static boolean isReusable(Path file, int size, int capacity) throws IOException {
+    if (!Files.isRegularFile(file) || Files.size(file) != size) {
+      return false;
+    }
+    ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.nativeOrder());
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) == -1) {
+          return false;
+        }
+      }
+    }
+    return header.getInt(0) == MAGIC
+        && header.getInt(4) == VERSION
+        && header.getInt(8) == capacity;
+  }
+
+  /**
+   * The permissions of a new table when there is no existing file to copy them from.  Readable by all processes on
+   * the host, as would be created with the typical umask of {@code 022}.
+   */
+  private static final java.util.Set<PosixFilePermission> DEFAULT_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+  /**
+   * Builds a new empty table in a temporary file beside the given file, then atomically renames it over the given
+   * file.  The new file has the same permissions, owner, and group as any existing file, otherwise
+   * {@link #DEFAULT_PERMISSIONS}, so processes that could map the existing file may map the new one.
+   */
+  private static void create(Path file, int size, int capacity, int halfLife) throws IOException {
+    Path absolute = file.toAbsolutePath();
+    Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName() + ".", ".tmp");
+    boolean success = false;
+    try {
+      // Temporary files are only accessible by their owner
+      PosixFileAttributeView tempView = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+      if (tempView != null) {
+        PosixFileAttributeView existingView = Files.isRegularFile(absolute)
+            ? Files.getFileAttributeView(absolute, PosixFileAttributeView.class)
+            : null;
+        if (existingView != null) {
+          PosixFileAttributes existing = existingView.readAttributes();
+          PosixFileAttributes created = tempView.readAttributes();
+          if (!existing.owner().equals(created.owner())) {
+            tempView.setOwner(existing.owner());
+          }
+          if (!existing.group().equals(created.group())) {
+            tempView.setGroup(existing.group());
+          }
+          tempView.setPermissions(existing.permissions());
+        } else {
+          tempView.setPermissions(DEFAULT_PERMISSIONS);
+        }
+      }
+      try (
+          RandomAccessFile raf = new RandomAccessFile(temp.toFile(), "rw");
+          FileChannel channel = raf.getChannel()
+          ) {
+        raf.setLength(size);
+        ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, capacity);
+        header.putInt(12, halfLife);
+        // Only renamed into place once complete, so readers never see a partially initialized file
+        while (header.hasRemaining()) {
+          channel.write(header);
+        }
+        channel.force(true);
+      }
+      Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      success = true;
+    } finally {
+      if (!success) {
+        Files.deleteIfExists(temp);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return LocalReputationTable.class.getName() + "(\"" + path + "\")";
+  }
+
+  /**
+   * Gets the number of slots in each region of the table.
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Gets the number of seconds for a score to decay by half, {@code 0} for no decay.
+   */
+  public int getHalfLife() {
+    return halfLife;
+  }
+
+  private static int slotOffset(int regionOffset, int index) {
+    return regionOffset + index * SLOT_SIZE;
+  }
+
+  /**
+   * Checks if the given high 64 bits of an IPv6 address may be stored, since {@code 0} and {@link #KEY_BUSY} are
+   * reserved.  Neither is a routable network.
+   */
+  private static boolean isStorable(long network) {
+    return network != 0 && network != KEY_BUSY;
+  }
+
+  private static long toKey(int ip) {
+    return KEY_PRESENT | (ip & 0xFFFFFFFFL);
+  }
+
+  private static long currentSeconds() {
+    return System.currentTimeMillis() / 1000;
+  }
+
+  /**
+   * Gets the decayed score from a slot value.
+   */
+  private float decay(long value, long now) {
+    float score = Float.intBitsToFloat((int) (value >>> 32));
+    if (halfLife == 0) {
+      return score;
+    }
+    long elapsed = now - (value & 0xFFFFFFFFL);
+    return elapsed <= 0 ? score : (float) (score * Math.pow(0.5, (double) elapsed / halfLife));
+  }
+
+  /**
+   * Gets the current, decayed, score for an IPv4 address without locking.
+   *
+   * @param ip  the IPv4 address, as returned by {@link com.aoindustries.aoserv.client.net.IpAddress#getIntForIpAddress(java.lang.String)}
+   *
+   * @return  the score, positive for good reputation, negative for bad reputation, or {@code 0} when unknown
+   */
+  public float getScore(int ip) {
+    return getScore(HEADER_SIZE, hash(ip), toKey(ip));
+  }
+
+  /**
+   * Gets the current, decayed, score for the /64 network of an IPv6 address without locking.
+   *
+   * @param high  the high 64 bits of the IPv6 address
+   *
+   * @return  the score, positive for good reputation, negative for bad reputation, or {@code 0} when unknown
+   */
+  public float getIpv6Score(long high) {
+    return isStorable(high) ? getScore(ipv6Offset, hash(high), high) : 0;
+  }
+
+  private float getScore(int regionOffset, int hash, long key) {
+    while (true) {
+      int index = hash & mask;
+      boolean retry = false;
+      for (int probe = 0; probe < MAX_PROBES && probe < capacity; probe++) {
+        int offset = slotOffset(regionOffset, index);
+        long slotKey = (long) LONGS.getAcquire(buffer, offset);
+        if (slotKey == 0) {
+          return 0;
+        }
+        if (slotKey == key) {
+          long value = (long) LONGS.getAcquire(buffer, offset + 8);
+          if ((long) LONGS.getAcquire(buffer, offset) == key) {
+            return decay(value, currentSeconds());
+          }
+          // Reassigned while reading
+          retry = true;
+          break;
+        }
+        index = (index + 1) & mask;
+      }
+      if (!retry) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Adds reputation for a batch of IPv4 addresses.  Addresses that cannot be added because all of their slots are
+   * in use are skipped.
+   *
+   * @param ipScores  the score for each IPv4 address, as returned by {@link com.aoindustries.aoserv.client.net.IpAddress#getIntForIpAddress(java.lang.String)}
+   *
+   * @return  the number of addresses skipped
+   */
+  public synchronized int addReputation(Set.ReputationType reputationType, Map<Integer, Short> ipScores) {
+    long now = currentSeconds();
+    int skipped = 0;
+    for (Map.Entry<Integer, Short> entry : ipScores.entrySet()) {
+      float delta = entry.getValue();
+      if (reputationType == Set.ReputationType.BAD) {
+        delta = -delta;
+      }
+      int ip = entry.getKey();
+      if (!addScore(HEADER_SIZE, hash(ip), toKey(ip), delta, now)) {
+        skipped++;
+      }
+    }
+    return skipped;
+  }
+
+  /**
+   * Adds reputation for a batch of IPv6 addresses, combined per /64 network.  Networks that cannot be added because
+   * all of their slots are in use are skipped.  Addresses in the reserved {@code ::/64} and
+   * {@code ffff:ffff:ffff:ffff::/64} networks, such as the loopback address {@code ::1}, are ignored and not counted
+   * as skipped.
+   *
+   * @param counts  the number of occurrences of each IPv6 address
+   * @param score  the score per occurrence, or the score per address when {@code coalesce}
+   *
+   * @return  the number of addresses skipped because the table is full
+   */
+  public synchronized int addIpv6Reputation(
+      Set.ReputationType reputationType,
+      LongPairCounts counts,
+      short score,
+      boolean coalesce
+  ) {
+    long now = currentSeconds();
+    int skipped = 0;
+    for (int slot = 0, slots = counts.getSlots(); slot < slots; slot++) {
+      if (counts.isUsed(slot)) {
+        long high = counts.getHigh(slot);
+        if (!isStorable(high)) {
+          // Not a routable network
+          continue;
+        }
+        float delta = coalesce ? score : ((float) score * counts.getCount(slot));
+        if (reputationType == Set.ReputationType.BAD) {
+          delta = -delta;
+        }
+        if (!addScore(ipv6Offset, hash(high), high, delta, now)) {
+          skipped++;
+        }
+      }
+    }
+    return skipped;
+  }
+
+  /**
+   * Adds to the score of a single key.
+   *
+   * @return  {@code true} when added or {@code false} when no slot is available
+   */
+  private boolean addScore(int regionOffset, int hash, long key, float delta, long now) {
+    assert Thread.holdsLock(this);
+    int index = hash & mask;
+    int available = -1;
+    for (int probe = 0; probe < MAX_PROBES && probe < capacity; probe++) {
+      int offset = slotOffset(regionOffset, index);
+      long slotKey = (long) LONGS.getAcquire(buffer, offset);
+      if (slotKey == key) {
+        float score = decay((long) LONGS.getAcquire(buffer, offset + 8), now) + delta;
+        LONGS.setRelease(buffer, offset + 8, toValue(score, now));
+        return true;
+      }
+      if (slotKey == 0) {
+        if (available == -1) {
+          // Publish value before key
+          LONGS.setRelease(buffer, offset + 8, toValue(delta, now));
+          LONGS.setRelease(buffer, offset, key);
+          return true;
+        }
+        break;
+      }
+      if (
+          available == -1
+              && Math.abs(decay((long) LONGS.getAcquire(buffer, offset + 8), now)) < STALE_SCORE
+      ) {
+        // Remember the first stale slot, but keep looking for the address itself
+        available = index;
+      }
+      index = (index + 1) & mask;
+    }
+    if (available == -1) {
+      return false;
+    }
+    // Reassign the stale slot, marking busy so readers of the old address do not see the new value
+    int offset = slotOffset(regionOffset, available);
+    LONGS.setRelease(buffer, offset, KEY_BUSY);
+    LONGS.setRelease(buffer, offset + 8, toValue(delta, now));
+    LONGS.setRelease(buffer, offset, key);
+    return true;
+  }
+
+  private static long toValue(float score, long now) {
+    return ((long) Float.floatToIntBits(score) << 32) | (now & 0xFFFFFFFFL);
+  }
+}
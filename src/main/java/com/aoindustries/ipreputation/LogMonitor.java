@@ -25,11 +25,9 @@ package com.aoindustries.ipreputation;
 
 import com.aoapps.hodgepodge.io.LogFollower;
 import com.aoindustries.aoserv.client.AoservConnector;
-import com.aoindustries.aoserv.client.net.IpAddress;
 import com.aoindustries.aoserv.client.net.reputation.Set;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -38,6 +36,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,10 +47,27 @@ import java.util.regex.Pattern;
 @SuppressWarnings("UseOfSystemOutOrSystemErr")
 public class LogMonitor extends IpReputationMonitor {
 
+  /**
+   * The engines available for matching lines.
+   */
+  private enum Engine {
+    /**
+     * Matches with {@link Pattern}, supporting its full syntax.
+     */
+    JAVA,
+
+    /**
+     * Matches with {@link LinearPattern}, which is guaranteed to run in time linear to the length of each line.
+     */
+    LINEAR
+  }
+
   private final String setName;
   private final String path;
   private final Pattern pattern;
+  private final LinearPattern linearPattern;
   private final int group;
+  private final int maxLineLength;
   private final boolean debug;
   private final int pollInterval;
   private final int commitInterval;
@@ -60,6 +77,8 @@ public class LogMonitor extends IpReputationMonitor {
   private final Set.ConfidenceType confidenceType;
   private final Set.ReputationType reputationType;
   private final Short score;
+  private final int matcherThreads;
+  private final int matcherBatchSize;
 
   /**
    * Creates a new log monitor.
@@ -85,14 +104,33 @@ public class LogMonitor extends IpReputationMonitor {
     if (patternValue == null) {
       throw new IllegalArgumentException(patternProperty + " required");
     }
-    pattern = Pattern.compile(patternValue);
-    // group
-    group = Integer.parseInt(
+    // engine
+    Engine engine = Engine.valueOf(
         config.getProperty(
-            "ipreputation.monitor." + num + ".group",
-            "0"
-        )
+            "ipreputation.monitor." + num + ".engine",
+            Engine.JAVA.name()
+        ).toUpperCase(Locale.ENGLISH)
     );
+    if (engine == Engine.LINEAR) {
+      pattern = null;
+      linearPattern = LinearPattern.compile(patternValue);
+    } else {
+      pattern = Pattern.compile(patternValue);
+      linearPattern = null;
+    }
+    // group
+    String groupProperty = "ipreputation.monitor." + num + ".group";
+    group = Integer.parseInt(config.getProperty(groupProperty, "0"));
+    int groupCount = linearPattern != null ? linearPattern.groupCount() : pattern.matcher("").groupCount();
+    if (group < 0 || group > groupCount) {
+      throw new IllegalArgumentException(groupProperty + " not in pattern: " + group);
+    }
+    // maxLineLength
+    String maxLineLengthProperty = "ipreputation.monitor." + num + ".maxLineLength";
+    maxLineLength = Integer.parseInt(config.getProperty(maxLineLengthProperty, "0"));
+    if (maxLineLength < 0) {
+      throw new IllegalArgumentException(maxLineLengthProperty + " may not be negative: " + maxLineLength);
+    }
     // debug
     debug = Boolean.parseBoolean(
         config.getProperty(
@@ -152,62 +190,221 @@ public class LogMonitor extends IpReputationMonitor {
             "1"
         )
     );
+    // matcherThreads
+    String matcherThreadsProperty = "ipreputation.monitor." + num + ".matcherThreads";
+    matcherThreads = Integer.parseInt(config.getProperty(matcherThreadsProperty, "1"));
+    if (matcherThreads < 1) {
+      throw new IllegalArgumentException(matcherThreadsProperty + " must be at least 1: " + matcherThreads);
+    }
+    // matcherBatchSize
+    String matcherBatchSizeProperty = "ipreputation.monitor." + num + ".matcherBatchSize";
+    matcherBatchSize = Integer.parseInt(config.getProperty(matcherBatchSizeProperty, "1000"));
+    if (matcherBatchSize < 1) {
+      throw new IllegalArgumentException(matcherBatchSizeProperty + " must be at least 1: " + matcherBatchSize);
+    }
   }
 
   /**
-   * The information passed between thread reading log file to thread committing to master.
+   * Matches lines against the pattern, counting the occurrences of each IP address.
+   * Each thread that matches lines has its own instance, which is only shared with
+   * the {@link CommitThread} when the counts are drained at commit time.
    */
-  private static class QueueEntry {
-    private final int ip;
+  private class LineMatcher {
+
+    /**
+     * The number of times each IPv4 address has matched since the last commit.
+     * Synchronized on itself, which also protects {@link #ipv6Counts}.
+     */
+    private final Map<Integer, Integer> ipCounts = new LinkedHashMap<>();
 
-    private QueueEntry(int ip) {
-      this.ip = ip;
+    /**
+     * The number of times each IPv6 address has matched since the last commit.
+     */
+    private final LongPairCounts ipv6Counts = new LongPairCounts();
+
+    private final IpAddressParser parser = new IpAddressParser();
+
+    private final Matcher matcher = pattern == null ? null : pattern.matcher("");
+    private final LinearPattern.Matcher linearMatcher = linearPattern == null ? null : linearPattern.matcher();
+    private int matchCount;
+
+    /**
+     * Matches a batch of lines.
+     */
+    private void match(List<String> lines) {
+      for (String line : lines) {
+        match(line);
+      }
+    }
+
+    /**
+     * Matches a single line.  The line is matched and its address parsed without holding the lock, which is only
+     * acquired to update the counts, so the {@link CommitThread} is never blocked behind matching a whole batch.
+     */
+    private void match(String line) {
+      // Parse the address in-place, without creating a String for the group
+      int start;
+      int end;
+      if (linearMatcher != null) {
+        if (!linearMatcher.matches(line)) {
+          return;
+        }
+        start = linearMatcher.start(group);
+        end = linearMatcher.end(group);
+      } else {
+        Matcher m = matcher.reset(line);
+        if (!m.matches()) {
+          return;
+        }
+        start = m.start(group);
+        end = m.end(group);
+      }
+      matchCount++;
+      if (debug) {
+        System.out.println(num + ": Matched " + matchCount + ": " + (start == -1 ? null : line.substring(start, end)));
+      }
+      int type = start == -1 ? IpAddressParser.INVALID : parser.parse(line, start, end);
+      if (type == IpAddressParser.IPV4) {
+        int ip = parser.getIpv4();
+        synchronized (ipCounts) {
+          ipCounts.merge(ip, 1, LogMonitor::addCounts);
+        }
+      } else if (type == IpAddressParser.IPV6) {
+        long high = parser.getHigh();
+        long low = parser.getLow();
+        synchronized (ipCounts) {
+          ipv6Counts.add(high, low, 1);
+        }
+      } else {
+        System.err.println(num + ": Warning, cannot parse IP address: " + (start == -1 ? null : line.substring(start, end)));
+      }
+    }
+
+    /**
+     * Adds all counts to the given map and clears the counts of this matcher.
+     */
+    private void drainTo(Map<Integer, Integer> totals, LongPairCounts ipv6Totals) {
+      synchronized (ipCounts) {
+        for (Map.Entry<Integer, Integer> entry : ipCounts.entrySet()) {
+          totals.merge(entry.getKey(), entry.getValue(), LogMonitor::addCounts);
+        }
+        ipCounts.clear();
+        ipv6Counts.addTo(ipv6Totals);
+        ipv6Counts.clear();
+      }
     }
   }
 
   /**
-   * The thread that reads from the log file and puts into the queue.
+   * Adds two counts, saturating at {@link Integer#MAX_VALUE}.
+   */
+  private static Integer addCounts(Integer count1, Integer count2) {
+    int sum = count1 + count2;
+    return sum < 0 ? Integer.MAX_VALUE : sum;
+  }
+
+  /**
+   * The thread that reads from the log file.  When {@link #matcherThreads} is one, lines are matched directly
+   * in this thread.  Otherwise, lines are passed in batches to the {@link MatcherThread matcher threads}.
    */
   private class LogReaderThread extends Thread {
 
-    private final List<QueueEntry> buffer;
+    private final LineMatcher matcher;
+    private final BlockingQueue<List<String>> batches;
 
-    private LogReaderThread(List<QueueEntry> buffer) {
+    /**
+     * @param matcher  the matcher used directly by this thread or {@code null} when passing batches
+     * @param batches  the queue of batches for the matcher threads or {@code null} when matching directly
+     */
+    private LogReaderThread(LineMatcher matcher, BlockingQueue<List<String>> batches) {
       super(LogMonitor.class.getName() + "(\"" + path + "\" → \"" + setName + "\").LogReaderThread");
-      this.buffer = buffer;
+      assert (matcher == null) != (batches == null);
+      this.matcher = matcher;
+      this.batches = batches;
     }
 
     @Override
     @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch", "SleepWhileInLoop"})
     public void run() {
-      int matchCount = 0;
       while (!Thread.currentThread().isInterrupted()) {
         try {
           // Open the log for following
-          try (BufferedReader log = new BufferedReader(new InputStreamReader(new BufferedInputStream(new LogFollower(path, pollInterval)), charset))) {
-            // Read one line at a time
+          try (
+              BoundedLineReader log = new BoundedLineReader(
+                  new InputStreamReader(new BufferedInputStream(new LogFollower(path, pollInterval)), charset),
+                  maxLineLength
+              )
+              ) {
+            // Read one line at a time, skipping over-long lines while reading
+            List<String> batch = null;
+            long skippedCount = 0;
             String line;
             while ((line = log.readLine()) != null) {
-              Matcher m = pattern.matcher(line);
-              if (m.matches()) {
-                String matched = m.group(group);
-                matchCount++;
-                if (debug) {
-                  System.out.println(num + ": Matched " + matchCount + ": " + matched);
+              if (debug && log.getSkippedCount() != skippedCount) {
+                System.out.println(num + ": Skipped " + (log.getSkippedCount() - skippedCount) + " lines longer than " + maxLineLength);
+                skippedCount = log.getSkippedCount();
+              }
+              if (batches == null) {
+                matcher.match(line);
+              } else {
+                if (batch == null) {
+                  batch = new ArrayList<>(matcherBatchSize);
                 }
-                try {
-                  QueueEntry entry = new QueueEntry(
-                      IpAddress.getIntForIpAddress(matched)
-                  );
-                  synchronized (buffer) {
-                    buffer.add(entry);
-                  }
-                } catch (IllegalArgumentException e) {
-                  e.printStackTrace(System.err);
+                batch.add(line);
+                // Pass the batch when full or when about to block waiting for more of the log
+                if (batch.size() >= matcherBatchSize || !log.ready()) {
+                  batches.put(batch);
+                  batch = null;
                 }
               }
             }
+            if (batch != null) {
+              batches.put(batch);
+            }
+          }
+        } catch (InterruptedException e) {
+          e.printStackTrace(System.err);
+          // Restore the interrupted status
+          Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+          t.printStackTrace(System.err);
+          try {
+            Thread.sleep(errorSleep);
+          } catch (InterruptedException e) {
+            e.printStackTrace(System.err);
+            // Restore the interrupted status
+            Thread.currentThread().interrupt();
           }
+        }
+      }
+    }
+  }
+
+  /**
+   * The threads that match batches of lines read by the {@link LogReaderThread}.
+   * Each has its own {@link LineMatcher}, so the matcher threads do not contend with each other.
+   */
+  private class MatcherThread extends Thread {
+
+    private final BlockingQueue<List<String>> batches;
+    private final LineMatcher matcher;
+
+    private MatcherThread(int index, BlockingQueue<List<String>> batches, LineMatcher matcher) {
+      super(LogMonitor.class.getName() + "(\"" + path + "\" → \"" + setName + "\").MatcherThread" + index);
+      this.batches = batches;
+      this.matcher = matcher;
+    }
+
+    @Override
+    @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch", "SleepWhileInLoop"})
+    public void run() {
+      while (!Thread.currentThread().isInterrupted()) {
+        try {
+          matcher.match(batches.take());
+        } catch (InterruptedException e) {
+          e.printStackTrace(System.err);
+          // Restore the interrupted status
+          Thread.currentThread().interrupt();
         } catch (Throwable t) {
           t.printStackTrace(System.err);
           try {
@@ -224,70 +421,62 @@ public class LogMonitor extends IpReputationMonitor {
 
   private class CommitThread extends Thread {
 
-    private final List<QueueEntry> buffer;
+    private final List<LineMatcher> matchers;
 
-    private CommitThread(List<QueueEntry> buffer) {
+    private CommitThread(List<LineMatcher> matchers) {
       super(LogMonitor.class.getName() + "(\"" + path + "\" → \"" + setName + "\").CommitThread");
-      this.buffer = buffer;
+      this.matchers = matchers;
     }
 
     @Override
     @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch", "SleepWhileInLoop"})
     public void run() {
+      final Map<Integer, Integer> ipCounts = new LinkedHashMap<>();
       final Map<Integer, Short> ipScores = new LinkedHashMap<>();
-      final List<QueueEntry> snapshot = new ArrayList<>();
-      final List<Set.AddReputation> newReputations = new ArrayList<>();
+      final LongPairCounts ipv6Counts = new LongPairCounts();
       while (!Thread.currentThread().isInterrupted()) {
         try {
-          // Get AoservConnector with settings in properties file
-          AoservConnector conn = AoservConnector.getConnector();
-
-          // Find the reputation set
-          Set reputationSet = conn.getNet().getReputation().getSet().get(setName);
-          if (reputationSet == null) {
-            throw new NullPointerException("IP Reputation Set not found: " + setName);
-          }
-
           while (!Thread.currentThread().isInterrupted()) {
             // Sleep for commit interval
             Thread.sleep(commitInterval);
 
-            // Get snapshot and clear buffer
-            snapshot.clear();
-            synchronized (buffer) {
-              snapshot.addAll(buffer);
-              buffer.clear();
+            // Merge the counts from each matcher, grouping by ip
+            ipCounts.clear();
+            ipv6Counts.clear();
+            for (LineMatcher matcher : matchers) {
+              matcher.drainTo(ipCounts, ipv6Counts);
             }
 
-            // Create new reputation entries, grouping by ip and summing scores (unless coalesce, then score once)
+            // Summing scores (unless coalesce, then score once)
             ipScores.clear();
-            for (QueueEntry entry : snapshot) {
-              Integer ip = entry.ip;
-              Short existingScore = ipScores.get(ip);
-              if (existingScore == null) {
-                ipScores.put(ip, score);
-              } else if (!coalesce) {
-                int newScore = existingScore + score;
-                ipScores.put(ip, newScore > Short.MAX_VALUE ? Short.MAX_VALUE : (short) newScore);
+            for (Map.Entry<Integer, Integer> entry : ipCounts.entrySet()) {
+              short ipScore;
+              if (coalesce) {
+                ipScore = score;
+              } else {
+                long newScore = (long) entry.getValue() * score;
+                if (newScore > Short.MAX_VALUE) {
+                  ipScore = Short.MAX_VALUE;
+                } else if (newScore < Short.MIN_VALUE) {
+                  ipScore = Short.MIN_VALUE;
+                } else {
+                  ipScore = (short) newScore;
+                }
               }
+              ipScores.put(entry.getKey(), ipScore);
             }
 
             // Make API call to add reputations
             if (debug) {
               System.out.println(num + ": Adding " + ipScores.size() + " new reputations to " + setName);
             }
-            newReputations.clear();
-            for (Map.Entry<Integer, Short> entry : ipScores.entrySet()) {
-              newReputations.add(
-                  new Set.AddReputation(
-                      entry.getKey(),
-                      confidenceType,
-                      reputationType,
-                      entry.getValue()
-                  )
-              );
+            addReputation(setName, confidenceType, reputationType, ipScores);
+            if (ipv6Counts.size() > 0) {
+              if (debug) {
+                System.out.println(num + ": Adding " + ipv6Counts.size() + " new IPv6 reputations");
+              }
+              addIpv6Reputation(reputationType, ipv6Counts, score, coalesce);
             }
-            reputationSet.addReputation(newReputations);
           }
         } catch (InterruptedException e) {
           e.printStackTrace(System.err);
@@ -309,8 +498,20 @@ public class LogMonitor extends IpReputationMonitor {
 
   @Override
   public void start() {
-    List<QueueEntry> buffer = new ArrayList<>();
-    new LogReaderThread(buffer).start();
-    new CommitThread(buffer).start();
+    List<LineMatcher> matchers = new ArrayList<>(matcherThreads);
+    if (matcherThreads == 1) {
+      LineMatcher matcher = new LineMatcher();
+      matchers.add(matcher);
+      new LogReaderThread(matcher, null).start();
+    } else {
+      BlockingQueue<List<String>> batches = new ArrayBlockingQueue<>(matcherThreads * 2);
+      for (int i = 1; i <= matcherThreads; i++) {
+        LineMatcher matcher = new LineMatcher();
+        matchers.add(matcher);
+        new MatcherThread(i, batches, matcher).start();
+      }
+      new LogReaderThread(null, batches).start();
+    }
+    new CommitThread(matchers).start();
   }
 }
@@ -0,0 +1,217 @@
+/*
+ * aoserv-ipreputation - Daemon that feeds IP reputation into the AOServ Platform.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-ipreputation.
+ *
+ * aoserv-ipreputation is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-ipreputation is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-ipreputation.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoindustries.ipreputation;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of keys that are a pair of {@code long}, such as IPv6 addresses, without boxing.
+ * An open-addressed hash table with linear probing, doubled in size when half full.
+ *
+ * <p>Entries are iterated by slot, from {@code 0} to {@link #getSlots()}, skipping slots that are not
+ * {@linkplain #isUsed(int) used}.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+final class LongPairCounts {
+
+  private static final int INITIAL_SLOTS = 16;
+
+  private long[] highs;
+  private long[] lows;
+  /**
+   * The count in each slot, {@code 0} when not used.
+   */
+  private int[] counts;
+  private int size;
+
+  LongPairCounts() {
+    allocate(INITIAL_SLOTS);
+  }
+
+  private void allocate(int slots) {
+    highs = new long[slots];
+    lows = new long[slots];
+    counts = new int[slots];
+  }
+
+  private static int hash(long high, long low) {
+    // Finalization mix from MurmurHash3
+    long h = high * 31 + low;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  /**
+   * Gets the number of keys.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Removes all keys.
+   */
+  void clear() {
+    if (size > 0) {
+      Arrays.fill(counts, 0);
+      size = 0;
+    }
+  }
+
+  /**
+   * Adds to the count of a key, saturating at {@link Integer#MAX_VALUE}.
+   *
+   * @param count  the positive number to add
+   *
+   * @return  the new count of the key
+   */
+  int add(long high, long low, int count) {
+    assert count > 0;
+    int mask = counts.length - 1;
+    int index = hash(high, low) & mask;
+    while (counts[index] != 0) {
+      if (highs[index] == high && lows[index] == low) {
+        int sum = counts[index] + count;
+        if (sum < 0) {
+          sum = Integer.MAX_VALUE;
+        }
+        counts[index] = sum;
+        return sum;
+      }
+      index = (index + 1) & mask;
+    }
+    highs[index] = high;
+    lows[index] = low;
+    counts[index] = count;
+    if (++size * 2 > counts.length) {
+      rehash();
+    }
+    return count;
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @return  {@code true} when the key was removed or {@code false} when not found
+   */
+  boolean remove(long high, long low) {
+    int mask = counts.length - 1;
+    int index = hash(high, low) & mask;
+    while (counts[index] != 0) {
+      if (highs[index] == high && lows[index] == low) {
+        counts[index] = 0;
+        size--;
+        // Shift back any following keys that would no longer be found past the new gap
+        int gap = index;
+        int next = index;
+        while (true) {
+          next = (next + 1) & mask;
+          if (counts[next] == 0) {
+            return true;
+          }
+          int home = hash(highs[next], lows[next]) & mask;
+          if (((next - home) & mask) >= ((next - gap) & mask)) {
+            highs[gap] = highs[next];
+            lows[gap] = lows[next];
+            counts[gap] = counts[next];
+            counts[next] = 0;
+            gap = next;
+          }
+        }
+      }
+      index = (index + 1) & mask;
+    }
+    return false;
+  }
+
+  private void rehash() {
+    long[] oldHighs = highs;
+    long[] oldLows = lows;
+    int[] oldCounts = counts;
+    allocate(oldCounts.length * 2);
+    int mask = counts.length - 1;
+    for (int i = 0; i < oldCounts.length; i++) {
+      if (oldCounts[i] != 0) {
+        int index = hash(oldHighs[i], oldLows[i]) & mask;
+        while (counts[index] != 0) {
+          index = (index + 1) & mask;
+        }
+        highs[index] = oldHighs[i];
+        lows[index] = oldLows[i];
+        counts[index] = oldCounts[i];
+      }
+    }
+  }
+
+  /**
+   * Adds all counts to the given counts.
+   */
+  void addTo(LongPairCounts totals) {
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        totals.add(highs[i], lows[i], counts[i]);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of slots, for iteration.
+   */
+  int getSlots() {
+    return counts.length;
+  }
+
+  /**
+   * Checks if the given slot is used.
+   */
+  boolean isUsed(int slot) {
+    return counts[slot] != 0;
+  }
+
+  /**
+   * Gets the high 64 bits of the key in the given slot.
+   */
+  long getHigh(int slot) {
+    return highs[slot];
+  }
+
+  /**
+   * Gets the low 64 bits of the key in the given slot.
+   */
+  long getLow(int slot) {
+    return lows[slot];
+  }
+
+  /**
+   * Gets the count in the given slot.
+   */
+  int getCount(int slot) {
+    return counts[slot];
+  }
+}
@@ -26,15 +26,15 @@ package com.aoindustries.ipreputation;
 import com.aoapps.lang.ProcessResult;
 import com.aoapps.lang.Strings;
 import com.aoindustries.aoserv.client.AoservConnector;
-import com.aoindustries.aoserv.client.net.IpAddress;
 import com.aoindustries.aoserv.client.net.reputation.Set;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -43,19 +43,59 @@ import java.util.Properties;
 @SuppressWarnings("UseOfSystemOutOrSystemErr")
 public class NetstatMonitor extends IpReputationMonitor {
 
-  private static final String[] windowsCommand = {
-      "netstat",
-      "-n",
-      "-p",
-      "TCP"
+  /**
+   * The commands run on Windows, where {@code -p TCP} only lists IPv4 connections.
+   */
+  private static final String[][] windowsCommands = {
+      {
+          "netstat",
+          "-n",
+          "-p",
+          "TCP"
+      },
+      {
+          "netstat",
+          "-n",
+          "-p",
+          "TCPv6"
+      }
+  };
+
+  private static final String[][] nonWindowsCommands = {
+      {
+          "netstat",
+          "-n",
+          "-t",
+          // Wide, so IPv6 addresses are not truncated
+          "-W"
+      }
   };
 
-  private static final String[] nonWindowsCommand = {
-      "netstat",
-      "-n",
-      "-t"
+  /**
+   * The socket states counted for flood detection, by index in {@link #floodThresholds}.
+   */
+  private static final String[][] floodStates = {
+      {"SYN_RECV", "SYN_RECEIVED"},
+      {"TIME_WAIT"},
+      {"ESTABLISHED"}
   };
 
+  /**
+   * Gets the index of a socket state in {@link #floodStates}.
+   *
+   * @return  the index or {@code -1} when not counted
+   */
+  private static int getFloodState(String state) {
+    for (int i = 0; i < floodStates.length; i++) {
+      for (String name : floodStates[i]) {
+        if (name.equalsIgnoreCase(state)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
   private final String setName;
   private final java.util.Set<Integer> localPorts;
   private final boolean debug;
@@ -64,6 +104,15 @@ public class NetstatMonitor extends IpReputationMonitor {
   private final Set.ConfidenceType confidenceType;
   private final Set.ReputationType reputationType;
   private final short score;
+  /**
+   * The maximum number of sockets in each of {@link #floodStates} from a single IP address to a single local port,
+   * {@code 0} when not checked.
+   */
+  private final int[] floodThresholds = new int[floodStates.length];
+  private final boolean floodDetection;
+  private final String floodSetName;
+  private final Set.ConfidenceType floodConfidenceType;
+  private final short floodScore;
 
   /**
    * Creates a new netstat monitor.
@@ -133,6 +182,41 @@ public class NetstatMonitor extends IpReputationMonitor {
             "1"
         )
     );
+    // floodMaxSynRecv, floodMaxTimeWait, floodMaxEstablished
+    String[] floodThresholdProperties = {
+        "ipreputation.monitor." + num + ".floodMaxSynRecv",
+        "ipreputation.monitor." + num + ".floodMaxTimeWait",
+        "ipreputation.monitor." + num + ".floodMaxEstablished"
+    };
+    assert floodThresholdProperties.length == floodStates.length;
+    boolean newFloodDetection = false;
+    for (int i = 0; i < floodThresholdProperties.length; i++) {
+      int threshold = Integer.parseInt(config.getProperty(floodThresholdProperties[i], "0"));
+      if (threshold < 0) {
+        throw new IllegalArgumentException(floodThresholdProperties[i] + " may not be negative: " + threshold);
+      }
+      floodThresholds[i] = threshold;
+      if (threshold != 0) {
+        newFloodDetection = true;
+      }
+    }
+    floodDetection = newFloodDetection;
+    // floodSetName
+    floodSetName = config.getProperty("ipreputation.monitor." + num + ".floodSetName", setName);
+    // floodConfidenceType
+    floodConfidenceType = Set.ConfidenceType.valueOf(
+        config.getProperty(
+            "ipreputation.monitor." + num + ".floodConfidenceType",
+            Set.ConfidenceType.UNCERTAIN.name()
+        ).toUpperCase(Locale.ENGLISH)
+    );
+    // floodScore
+    floodScore = Short.parseShort(
+        config.getProperty(
+            "ipreputation.monitor." + num + ".floodScore",
+            "1"
+        )
+    );
   }
 
   @Override
@@ -141,26 +225,49 @@ public class NetstatMonitor extends IpReputationMonitor {
     @SuppressWarnings({"AssignmentToForLoopParameter", "UseSpecificCatch", "TooBroadCatch", "SleepWhileInLoop"})
     Thread thread = new Thread(
         () -> {
+          final IpAddressParser parser = new IpAddressParser();
           final java.util.Set<Integer> uniqueIps = new LinkedHashSet<>();
-          final List<Set.AddReputation> newReputations = new ArrayList<>();
+          final LongPairCounts ipv6Ips = new LongPairCounts();
+          final Map<Integer, Short> ipScores = new LinkedHashMap<>();
+          // The number of sockets by local port, then state, then IP address, with IPv4 addresses as IPv4-mapped IPv6
+          final Map<Integer, LongPairCounts[]> floodCounts = new HashMap<>();
+          if (floodDetection) {
+            for (Integer localPort : localPorts) {
+              LongPairCounts[] stateCounts = new LongPairCounts[floodStates.length];
+              for (int i = 0; i < stateCounts.length; i++) {
+                if (floodThresholds[i] != 0) {
+                  stateCounts[i] = new LongPairCounts();
+                }
+              }
+              floodCounts.put(localPort, stateCounts);
+            }
+          }
+          final Map<Integer, Short> floodIpScores = new LinkedHashMap<>();
+          final LongPairCounts floodIpv6Ips = new LongPairCounts();
           while (!Thread.currentThread().isInterrupted()) {
             try {
-              // Get AoservConnector with settings in properties file
-              AoservConnector myConn = AoservConnector.getConnector();
-
-              // Find the reputation set
-              Set reputationSet = myConn.getNet().getReputation().getSet().get(setName);
-              if (reputationSet == null) {
-                throw new NullPointerException("IP Reputation Set not found: " + setName);
-              }
               while (!Thread.currentThread().isInterrupted()) {
-                ProcessResult result = ProcessResult.exec(isWindows ? windowsCommand : nonWindowsCommand);
-                int exitVal = result.getExitVal();
-                if (exitVal != 0) {
-                  throw new IOException("Non-zero exit value: " + exitVal + ".  stderr=" + result.getStderr());
+                StringBuilder stdout = new StringBuilder();
+                for (String[] command : isWindows ? windowsCommands : nonWindowsCommands) {
+                  ProcessResult result = ProcessResult.exec(command);
+                  int exitVal = result.getExitVal();
+                  if (exitVal != 0) {
+                    throw new IOException("Non-zero exit value: " + exitVal + ".  stderr=" + result.getStderr());
+                  }
+                  stdout.append(result.getStdout()).append('\n');
                 }
                 uniqueIps.clear();
-                for (String line : Strings.split(result.getStdout())) {
+                ipv6Ips.clear();
+                for (LongPairCounts[] stateCounts : floodCounts.values()) {
+                  for (LongPairCounts counts : stateCounts) {
+                    if (counts != null) {
+                      counts.clear();
+                    }
+                  }
+                }
+                floodIpScores.clear();
+                floodIpv6Ips.clear();
+                for (String line : Strings.split(stdout.toString())) {
                   line = line.trim();
                   if (
                       line.length() > 0
@@ -191,10 +298,11 @@ public class NetstatMonitor extends IpReputationMonitor {
                         state = null;
                       }
                     }
+                    final boolean established = state != null && "ESTABLISHED".equalsIgnoreCase(state);
+                    final int floodState = (floodDetection && state != null) ? getFloodState(state) : -1;
                     if (
-                        "TCP".equalsIgnoreCase(proto)
-                            && state != null
-                            && "ESTABLISHED".equalsIgnoreCase(state)
+                        ("TCP".equalsIgnoreCase(proto) || "TCP6".equalsIgnoreCase(proto))
+                            && (established || (floodState != -1 && floodThresholds[floodState] != 0))
                     ) {
                       assert localAddress != null;
                       int colonPos = localAddress.lastIndexOf(':');
@@ -204,11 +312,40 @@ public class NetstatMonitor extends IpReputationMonitor {
                           assert foreignAddress != null;
                           colonPos = foreignAddress.lastIndexOf(':');
                           if (colonPos != -1) {
-                            String ip = foreignAddress.substring(0, colonPos);
                             if (debug) {
-                              System.out.println(num + ": Parsing " + ip);
+                              System.out.println(num + ": Parsing " + foreignAddress.substring(0, colonPos));
+                            }
+                            int type = parser.parse(foreignAddress, 0, colonPos);
+                            if (type == IpAddressParser.INVALID) {
+                              System.err.println(num + ": Warning, cannot parse IP address: " + line);
+                            } else {
+                              if (established) {
+                                if (type == IpAddressParser.IPV4) {
+                                  uniqueIps.add(parser.getIpv4());
+                                } else {
+                                  // Counted once per address, since coalesced below
+                                  ipv6Ips.add(parser.getHigh(), parser.getLow(), 1);
+                                }
+                              }
+                              if (floodState != -1 && floodThresholds[floodState] != 0) {
+                                // Flagged once, when the count first exceeds the threshold
+                                int count = type == IpAddressParser.IPV4
+                                    ? floodCounts.get(localPort)[floodState].add(0, 0xFFFF00000000L | (parser.getIpv4() & 0xFFFFFFFFL), 1)
+                                    : floodCounts.get(localPort)[floodState].add(parser.getHigh(), parser.getLow(), 1);
+                                if (count == floodThresholds[floodState] + 1) {
+                                  if (debug) {
+                                    System.out.println(num + ": Flood detected, more than " + floodThresholds[floodState]
+                                        + " " + state + " from " + foreignAddress.substring(0, colonPos) + " to " + localPort);
+                                  }
+                                  if (type == IpAddressParser.IPV4) {
+                                    floodIpScores.put(parser.getIpv4(), floodScore);
+                                  } else {
+                                    // Counted once per address, since coalesced below
+                                    floodIpv6Ips.add(parser.getHigh(), parser.getLow(), 1);
+                                  }
+                                }
+                              }
                             }
-                            uniqueIps.add(IpAddress.getIntForIpAddress(ip));
                           } else {
                             System.err.println(num + ": Warning, cannot parse line: " + line);
                           }
@@ -219,22 +356,43 @@ public class NetstatMonitor extends IpReputationMonitor {
                     }
                   }
                 }
+                // Flagged addresses do not also receive the per-connection reputation
+                uniqueIps.removeAll(floodIpScores.keySet());
+                for (int slot = 0, slots = floodIpv6Ips.getSlots(); slot < slots; slot++) {
+                  if (floodIpv6Ips.isUsed(slot)) {
+                    ipv6Ips.remove(floodIpv6Ips.getHigh(slot), floodIpv6Ips.getLow(slot));
+                  }
+                }
                 // Make API call to add reputations
                 if (debug) {
                   System.out.println(num + ": Adding " + uniqueIps.size() + " new reputations to " + setName);
                 }
-                newReputations.clear();
+                ipScores.clear();
                 for (Integer ip : uniqueIps) {
-                  newReputations.add(
-                      new Set.AddReputation(
-                          ip,
-                          confidenceType,
-                          reputationType,
-                          score
-                      )
-                  );
+                  ipScores.put(ip, score);
+                }
+                addReputation(setName, confidenceType, reputationType, ipScores);
+                if (ipv6Ips.size() > 0) {
+                  if (debug) {
+                    System.out.println(num + ": Adding " + ipv6Ips.size() + " new IPv6 reputations");
+                  }
+                  addIpv6Reputation(reputationType, ipv6Ips, score, true);
+                }
+                if (floodDetection) {
+                  if (!floodIpScores.isEmpty()) {
+                    if (debug) {
+                      System.out.println(num + ": Adding " + floodIpScores.size() + " new flood reputations to " + floodSetName);
+                    }
+                    // Not prefix aggregated, which would boost or summarize by the settings for per-connection reputation
+                    addReputation(floodSetName, floodConfidenceType, Set.ReputationType.BAD, floodIpScores, false);
+                  }
+                  if (floodIpv6Ips.size() > 0) {
+                    if (debug) {
+                      System.out.println(num + ": Adding " + floodIpv6Ips.size() + " new IPv6 flood reputations");
+                    }
+                    addIpv6Reputation(Set.ReputationType.BAD, floodIpv6Ips, floodScore, true);
+                  }
                 }
-                reputationSet.addReputation(newReputations);
                 // Sleep and then repeat
                 Thread.sleep(checkInterval);
               }
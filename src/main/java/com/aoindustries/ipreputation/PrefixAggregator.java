@@ -0,0 +1,186 @@
+/*
+ * aoserv-ipreputation - Daemon that feeds IP reputation into the AOServ Platform.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-ipreputation.
+ *
+ * aoserv-ipreputation is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-ipreputation is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-ipreputation.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoindustries.ipreputation;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Detects network prefixes with many addresses in a single batch, such as during a distributed attack from a botnet
+ * or cloud range.  The addresses in each dense prefix may have their scores boosted, so the whole network reacts
+ * sooner.
+ *
+ * <p>They may also be summarized into a single entry with the combined score, which shrinks the batch sent to the
+ * master.  This misattributes per-host reputation: the combined score is credited to the highest-scoring address,
+ * and the other addresses of the prefix receive none.  It is only suitable when the master is used to block whole
+ * networks.  Aggregation is only applied to the batch sent to the master, never to the
+ * {@linkplain LocalReputationTable local reputation table}.</p>
+ */
+final class PrefixAggregator {
+
+  /**
+   * Gets the prefix aggregator for the given monitor.
+   *
+   * @return  the aggregator or {@code null} when not enabled
+   */
+  static PrefixAggregator getInstance(Properties config, int num) {
+    if (
+        !Boolean.parseBoolean(
+            config.getProperty(
+                "ipreputation.monitor." + num + ".prefixAggregation",
+                "false"
+            )
+        )
+    ) {
+      return null;
+    }
+    // prefixLength
+    String prefixLengthProperty = "ipreputation.monitor." + num + ".prefixLength";
+    int prefixLength = Integer.parseInt(config.getProperty(prefixLengthProperty, "24"));
+    if (prefixLength < 1 || prefixLength > 31) {
+      throw new IllegalArgumentException(prefixLengthProperty + " must be between 1 and 31: " + prefixLength);
+    }
+    // prefixMinHosts
+    String prefixMinHostsProperty = "ipreputation.monitor." + num + ".prefixMinHosts";
+    int minHosts = Integer.parseInt(config.getProperty(prefixMinHostsProperty, "16"));
+    if (minHosts < 2) {
+      throw new IllegalArgumentException(prefixMinHostsProperty + " must be at least 2: " + minHosts);
+    }
+    return new PrefixAggregator(
+        prefixLength,
+        minHosts,
+        // prefixBoost
+        Short.parseShort(
+            config.getProperty(
+                "ipreputation.monitor." + num + ".prefixBoost",
+                "0"
+            )
+        ),
+        // prefixSummarize
+        Boolean.parseBoolean(
+            config.getProperty(
+                "ipreputation.monitor." + num + ".prefixSummarize",
+                "false"
+            )
+        )
+    );
+  }
+
+  private final int mask;
+  private final int minHosts;
+  private final short boost;
+  private final boolean summarize;
+
+  private PrefixAggregator(int prefixLength, int minHosts, short boost, boolean summarize) {
+    this.mask = -1 << (32 - prefixLength);
+    this.minHosts = minHosts;
+    this.boost = boost;
+    this.summarize = summarize;
+  }
+
+  private static short saturate(long score) {
+    if (score > Short.MAX_VALUE) {
+      return Short.MAX_VALUE;
+    } else if (score < Short.MIN_VALUE) {
+      return Short.MIN_VALUE;
+    } else {
+      return (short) score;
+    }
+  }
+
+  /**
+   * The combined reputation of a dense prefix, when summarizing.
+   */
+  private static class Summary {
+    private int ip;
+    private short maxScore;
+    private long totalScore;
+
+    private Summary(int ip, short score) {
+      this.ip = ip;
+      this.maxScore = score;
+      this.totalScore = score;
+    }
+  }
+
+  /**
+   * Aggregates a batch of reputation.
+   *
+   * @param ipScores  the score for each IPv4 address, not modified
+   *
+   * @return  the aggregated scores or {@code ipScores} itself when no prefix is dense
+   */
+  Map<Integer, Short> aggregate(Map<Integer, Short> ipScores) {
+    if (ipScores.size() < minHosts) {
+      return ipScores;
+    }
+    // Count the addresses in each prefix
+    Map<Integer, Integer> prefixHosts = new HashMap<>();
+    boolean hasDense = false;
+    for (Integer ip : ipScores.keySet()) {
+      int hosts = prefixHosts.merge(ip & mask, 1, Integer::sum);
+      if (hosts >= minHosts) {
+        hasDense = true;
+      }
+    }
+    if (!hasDense) {
+      return ipScores;
+    }
+    Map<Integer, Short> aggregated = new LinkedHashMap<>();
+    Map<Integer, Summary> summaries = summarize ? new LinkedHashMap<>() : null;
+    for (Map.Entry<Integer, Short> entry : ipScores.entrySet()) {
+      int ip = entry.getKey();
+      int prefix = ip & mask;
+      short score = entry.getValue();
+      if (prefixHosts.get(prefix) < minHosts) {
+        aggregated.put(ip, score);
+      } else {
+        score = saturate((long) score + boost);
+        if (summaries == null) {
+          aggregated.put(ip, score);
+        } else {
+          Summary summary = summaries.get(prefix);
+          if (summary == null) {
+            summaries.put(prefix, new Summary(ip, score));
+          } else {
+            // Represent the prefix by its highest-scoring address
+            if (score > summary.maxScore) {
+              summary.ip = ip;
+              summary.maxScore = score;
+            }
+            summary.totalScore += score;
+          }
+        }
+      }
+    }
+    if (summaries != null) {
+      for (Summary summary : summaries.values()) {
+        aggregated.put(summary.ip, saturate(summary.totalScore));
+      }
+    }
+    return aggregated;
+  }
+}
@@ -0,0 +1,346 @@
+/*
+ * aoserv-ipreputation - Daemon that feeds IP reputation into the AOServ Platform.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-ipreputation.
+ *
+ * aoserv-ipreputation is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-ipreputation is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-ipreputation.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoindustries.ipreputation;
+
+import com.aoindustries.aoserv.client.AoservConnector;
+import com.aoindustries.aoserv.client.net.reputation.Set;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Accepts batches of reputation {@linkplain ReputationRelay relayed} from the daemons on other hosts, merging them by
+ * set and IP address, then adds the merged reputation to the master once per commit interval.  Many hosts commonly
+ * report the same addresses, so this greatly reduces the number and size of calls to the master.
+ *
+ * <p>The protocol is binary and big-endian.  Each connection begins with the int {@link #MAGIC} and the byte
+ * {@link #VERSION}, followed by any number of batches.  Each batch is:</p>
+ * <ol>
+ *   <li>The set name, as by {@link DataOutputStream#writeUTF(java.lang.String)}</li>
+ *   <li>A byte of types: {@link #DEFINITE} when the confidence type is definite, combined with {@link #BAD} when
+ *       the reputation type is bad</li>
+ *   <li>An int of the number of addresses, at most {@link #MAX_BATCH_SIZE}</li>
+ *   <li>For each address, the int IPv4 address followed by the short score</li>
+ * </ol>
+ *
+ * <p>Once the batch has been merged, the byte {@link #ACCEPTED} is written in response.</p>
+ *
+ * <p>There is no authentication, so the aggregator must only listen on a trusted network.</p>
+ */
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+class ReputationAggregator extends Thread {
+
+  /**
+   * The magic number at the beginning of each connection.
+   */
+  static final int MAGIC = 0x414F5241;
+
+  /**
+   * The version of the protocol.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The type bit for {@link Set.ConfidenceType#DEFINITE}.
+   */
+  static final int DEFINITE = 1;
+
+  /**
+   * The type bit for {@link Set.ReputationType#BAD}.
+   */
+  static final int BAD = 2;
+
+  /**
+   * The response once a batch has been accepted.
+   */
+  static final int ACCEPTED = 1;
+
+  /**
+   * The maximum number of addresses in one batch.
+   */
+  static final int MAX_BATCH_SIZE = 1 << 20;
+
+  /**
+   * Gets the type byte for the given types.
+   */
+  static int getTypes(Set.ConfidenceType confidenceType, Set.ReputationType reputationType) {
+    return (confidenceType == Set.ConfidenceType.DEFINITE ? DEFINITE : 0)
+        | (reputationType == Set.ReputationType.BAD ? BAD : 0);
+  }
+
+  /**
+   * Adds two scores, saturating to the range of a {@code short}.
+   */
+  private static Short addScores(Short score1, Short score2) {
+    int sum = score1 + score2;
+    if (sum > Short.MAX_VALUE) {
+      return Short.MAX_VALUE;
+    } else if (sum < Short.MIN_VALUE) {
+      return Short.MIN_VALUE;
+    } else {
+      return (short) sum;
+    }
+  }
+
+  /**
+   * The reputation set and types that batches are merged by.
+   */
+  static final class BatchKey {
+
+    private final String setName;
+    private final int types;
+
+    BatchKey(String setName, int types) {
+      this.setName = setName;
+      this.types = types;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof BatchKey)) {
+        return false;
+      }
+      BatchKey other = (BatchKey) obj;
+      return types == other.types && setName.equals(other.setName);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(setName, types);
+    }
+
+    @Override
+    public String toString() {
+      return setName + "(" + getConfidenceType() + ", " + getReputationType() + ")";
+    }
+
+    String getSetName() {
+      return setName;
+    }
+
+    Set.ConfidenceType getConfidenceType() {
+      return (types & DEFINITE) != 0 ? Set.ConfidenceType.DEFINITE : Set.ConfidenceType.UNCERTAIN;
+    }
+
+    Set.ReputationType getReputationType() {
+      return (types & BAD) != 0 ? Set.ReputationType.BAD : Set.ReputationType.GOOD;
+    }
+  }
+
+  private final InetSocketAddress address;
+  private final long commitInterval;
+  private final long errorSleep;
+
+  /**
+   * The reputation merged since the last commit.  Synchronized on itself.
+   */
+  private final Map<BatchKey, Map<Integer, Short>> pending = new LinkedHashMap<>();
+
+  ReputationAggregator(InetSocketAddress address, long commitInterval, long errorSleep) {
+    super(ReputationAggregator.class.getName() + "(" + address + ")");
+    this.address = address;
+    this.commitInterval = commitInterval;
+    this.errorSleep = errorSleep;
+  }
+
+  @Override
+  public synchronized void start() {
+    super.start();
+    new CommitThread().start();
+  }
+
+  @Override
+  @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch", "SleepWhileInLoop"})
+  public void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try (ServerSocket serverSocket = new ServerSocket()) {
+        serverSocket.bind(address);
+        while (!Thread.currentThread().isInterrupted()) {
+          new ConnectionThread(serverSocket.accept()).start();
+        }
+      } catch (Throwable t) {
+        t.printStackTrace(System.err);
+        try {
+          Thread.sleep(errorSleep);
+        } catch (InterruptedException e) {
+          e.printStackTrace(System.err);
+          // Restore the interrupted status
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Merges a batch into the pending reputation.
+   */
+  void merge(BatchKey key, Map<Integer, Short> ipScores) {
+    synchronized (pending) {
+      Map<Integer, Short> merged = pending.get(key);
+      if (merged == null) {
+        pending.put(key, ipScores);
+      } else {
+        for (Map.Entry<Integer, Short> entry : ipScores.entrySet()) {
+          merged.merge(entry.getKey(), entry.getValue(), ReputationAggregator::addScores);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes and returns all reputation merged since the last call.
+   */
+  Map<BatchKey, Map<Integer, Short>> drain() {
+    synchronized (pending) {
+      Map<BatchKey, Map<Integer, Short>> drained = new LinkedHashMap<>(pending);
+      pending.clear();
+      return drained;
+    }
+  }
+
+  /**
+   * Reads the batches of one connection.
+   */
+  private class ConnectionThread extends Thread {
+
+    private final Socket socket;
+
+    private ConnectionThread(Socket socket) {
+      super(ReputationAggregator.this.getName() + ".ConnectionThread(" + socket.getRemoteSocketAddress() + ")");
+      this.socket = socket;
+    }
+
+    @Override
+    @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
+    public void run() {
+      try (
+          Socket s = socket;
+          DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))
+          ) {
+        s.setTcpNoDelay(true);
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+          throw new IOException("Unexpected magic: 0x" + Integer.toHexString(magic));
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+          throw new IOException("Unsupported version: " + version);
+        }
+        while (!Thread.currentThread().isInterrupted()) {
+          String setName;
+          try {
+            setName = in.readUTF();
+          } catch (EOFException e) {
+            // Relay closed the connection
+            break;
+          }
+          int types = in.readUnsignedByte();
+          if ((types & ~(DEFINITE | BAD)) != 0) {
+            throw new IOException("Unexpected types: " + types);
+          }
+          int size = in.readInt();
+          if (size < 0 || size > MAX_BATCH_SIZE) {
+            throw new IOException("Batch size out of range: " + size);
+          }
+          // Not sized from the batch size, which is sent by an unauthenticated peer
+          Map<Integer, Short> ipScores = new LinkedHashMap<>();
+          for (int i = 0; i < size; i++) {
+            int ip = in.readInt();
+            short score = in.readShort();
+            ipScores.merge(ip, score, ReputationAggregator::addScores);
+          }
+          merge(new BatchKey(setName, types), ipScores);
+          out.writeByte(ACCEPTED);
+          out.flush();
+        }
+      } catch (Throwable t) {
+        t.printStackTrace(System.err);
+      }
+    }
+  }
+
+  /**
+   * Adds the merged reputation to the master once per commit interval.
+   */
+  private class CommitThread extends Thread {
+
+    private CommitThread() {
+      super(ReputationAggregator.this.getName() + ".CommitThread");
+    }
+
+    @Override
+    @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch", "SleepWhileInLoop"})
+    public void run() {
+      while (!Thread.currentThread().isInterrupted()) {
+        try {
+          // Sleep for commit interval
+          Thread.sleep(commitInterval);
+
+          // Get AoservConnector with settings in properties file
+          AoservConnector conn = AoservConnector.getConnector();
+
+          for (Map.Entry<BatchKey, Map<Integer, Short>> entry : drain().entrySet()) {
+            BatchKey key = entry.getKey();
+            try {
+              IpReputationMonitor.commitReputation(
+                  conn,
+                  key.getSetName(),
+                  key.getConfidenceType(),
+                  key.getReputationType(),
+                  entry.getValue()
+              );
+            } catch (Throwable t) {
+              // Commit the other sets, even when one fails
+              System.err.println("Unable to add " + entry.getValue().size() + " reputations to " + key);
+              t.printStackTrace(System.err);
+            }
+          }
+        } catch (InterruptedException e) {
+          e.printStackTrace(System.err);
+          // Restore the interrupted status
+          Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+          t.printStackTrace(System.err);
+          try {
+            Thread.sleep(errorSleep);
+          } catch (InterruptedException e) {
+            e.printStackTrace(System.err);
+            // Restore the interrupted status
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * aoserv-ipreputation - Daemon that feeds IP reputation into the AOServ Platform.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-ipreputation.
+ *
+ * aoserv-ipreputation is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-ipreputation is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-ipreputation.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoindustries.ipreputation;
+
+import com.aoindustries.aoserv.client.net.reputation.Set;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Forwards batches of reputation to a {@link ReputationAggregator} instead of adding them to the master.  A single
+ * connection is shared by all monitors, opened on first use and reopened after any error.
+ */
+final class ReputationRelay {
+
+  private static final int CONNECT_TIMEOUT = 60000;
+
+  private static final int SO_TIMEOUT = 60000;
+
+  private final String host;
+  private final int port;
+
+  private Socket socket;
+  private DataInputStream in;
+  private DataOutputStream out;
+
+  ReputationRelay(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  @Override
+  public String toString() {
+    return ReputationRelay.class.getName() + "(" + host + ":" + port + ")";
+  }
+
+  /**
+   * Forwards a batch of reputation, waiting until the aggregator has accepted it.  Empty batches are not sent.
+   * Batches larger than {@link ReputationAggregator#MAX_BATCH_SIZE} are sent in multiple parts, each accepted
+   * separately.
+   *
+   * @param ipScores  the score for each IPv4 address, as returned by {@link com.aoindustries.aoserv.client.net.IpAddress#getIntForIpAddress(java.lang.String)}
+   *
+   * @throws IOException when the batch could not be forwarded, in which case the connection will be reopened on the
+   *                     next batch
+   */
+  synchronized void forward(
+      String setName,
+      Set.ConfidenceType confidenceType,
+      Set.ReputationType reputationType,
+      Map<Integer, Short> ipScores
+  ) throws IOException {
+    if (ipScores.isEmpty()) {
+      return;
+    }
+    boolean success = false;
+    try {
+      if (socket == null) {
+        connect();
+      }
+      int types = ReputationAggregator.getTypes(confidenceType, reputationType);
+      Iterator<Map.Entry<Integer, Short>> entries = ipScores.entrySet().iterator();
+      int remaining = ipScores.size();
+      while (remaining > 0) {
+        int partSize = Math.min(remaining, ReputationAggregator.MAX_BATCH_SIZE);
+        out.writeUTF(setName);
+        out.writeByte(types);
+        out.writeInt(partSize);
+        for (int i = 0; i < partSize; i++) {
+          Map.Entry<Integer, Short> entry = entries.next();
+          out.writeInt(entry.getKey());
+          out.writeShort(entry.getValue());
+        }
+        out.flush();
+        int response = in.read();
+        if (response != ReputationAggregator.ACCEPTED) {
+          throw new IOException("Unexpected response from aggregator: " + response);
+        }
+        remaining -= partSize;
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        close();
+      }
+    }
+  }
+
+  private void connect() throws IOException {
+    assert Thread.holdsLock(this);
+    Socket newSocket = new Socket();
+    boolean success = false;
+    try {
+      newSocket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+      newSocket.setSoTimeout(SO_TIMEOUT);
+      newSocket.setTcpNoDelay(true);
+      in = new DataInputStream(new BufferedInputStream(newSocket.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+      out.writeInt(ReputationAggregator.MAGIC);
+      out.writeByte(ReputationAggregator.VERSION);
+      socket = newSocket;
+      success = true;
+    } finally {
+      if (!success) {
+        newSocket.close();
+        in = null;
+        out = null;
+      }
+    }
+  }
+
+  @SuppressWarnings("UseOfSystemOutOrSystemErr")
+  private void close() {
+    assert Thread.holdsLock(this);
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        e.printStackTrace(System.err);
+      }
+      socket = null;
+      in = null;
+      out = null;
+    }
+  }
+}